@@ -0,0 +1,39 @@
+package plachess.bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * runs benchmarks with GC profiler (allocation rate and bytes per operation)
+ * and writes results as JSON to jmh-result.json in working directory, unless given otherwise on command line
+ * all standard JMH arguments are accepted, e.g. "BoardBenchmark -p board=BitBoard -rf csv -rff out.csv"
+ */
+public class BenchMain {
+    public static void main(String[] args) throws IOException, RunnerException, CommandLineOptionException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if(cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        if(cmd.shouldList()) {
+            new Runner(cmd).list();
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+        if(cmd.getProfilers().isEmpty())
+            options.addProfiler(GCProfiler.class);
+        if(!cmd.getResultFormat().hasValue())
+            options.resultFormat(ResultFormatType.JSON);
+        if(!cmd.getResult().hasValue())
+            options.result("jmh-result.json");
+        new Runner(options.build()).run();
+    }
+}
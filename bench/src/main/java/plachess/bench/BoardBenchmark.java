@@ -0,0 +1,64 @@
+package plachess.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import plachess.engine.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** single operations of Board implementations (and of ArrayBoardPosition built on them) */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+    @Param({"Array1DBoard", "Array2DBoard", "SparseBoard", "BitBoard", "PrimitiveBitBoard"})
+    public String board;
+
+    @Param({"opening", "middlegame", "endgame", "problem"})
+    public String position;
+
+    private BoardPosition bp;
+    private Piece[] kings;
+    /** first simple move of color on turn as changes for Board.set */
+    private List<Pair<Position, Piece>> work;
+
+    @Setup
+    public void setup() {
+        bp = Corpus.getPosition(position, board);
+        Board b = bp.getBoard();
+        kings = b.getAllPieces().stream().filter(p -> p.type == PieceType.KING).toArray(Piece[]::new);
+        Move.MoveSimple move = b.getAllSimpleMoves(bp.getTurnColor()).get(0);
+        work = Arrays.asList(
+                new Pair<>(move.posFrom, Piece.empty()),
+                new Pair<>(move.posTo, b.getPiece(move.posFrom)));
+    }
+
+    @Benchmark
+    public List<BoardPosition> getNextPositions() {
+        List<BoardPosition> result = bp.getNextPositions();
+        bp.destroy(); // forget cached children, so they are generated again
+        return result;
+    }
+
+    @Benchmark
+    public void isThreatened(Blackhole bh) {
+        Board b = bp.getBoard();
+        for(Piece king: kings)
+            bh.consume(b.isThreatened(king));
+    }
+
+    @Benchmark
+    public Board set() {
+        return bp.getBoard().set(work);
+    }
+
+    @Benchmark
+    public List<Piece> getAllPieces() {
+        return bp.getBoard().getAllPieces();
+    }
+}
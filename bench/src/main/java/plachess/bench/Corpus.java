@@ -0,0 +1,37 @@
+package plachess.bench;
+
+import plachess.engine.*;
+
+/** benchmarked positions and Board implementations, selected by name from @Param values */
+public interface Corpus {
+    String OPENING = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+    String MIDDLEGAME = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+    String ENDGAME = "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1";
+    String PROBLEM = "1RrB2b1/8/4n3/2n3p1/2K2b2/1p1rk3/6BR/8 b - - 0 1";
+
+    static String getXFEN(String name) {
+        switch(name) {
+            case "opening": return OPENING;
+            case "middlegame": return MIDDLEGAME;
+            case "endgame": return ENDGAME;
+            case "problem": return PROBLEM;
+            default: throw new IllegalArgumentException("Unknown position " + name);
+        }
+    }
+
+    /** @return new empty board of given class name */
+    static Board newBoard(String name) {
+        switch(name) {
+            case "Array1DBoard": return new Array1DBoard();
+            case "Array2DBoard": return new Array2DBoard();
+            case "SparseBoard": return new SparseBoard();
+            case "BitBoard": return new BitBoard();
+            case "PrimitiveBitBoard": return new PrimitiveBitBoard();
+            default: throw new IllegalArgumentException("Unknown board " + name);
+        }
+    }
+
+    static BoardPosition getPosition(String position, String board) {
+        return BoardPosition.fromXFEN(getXFEN(position), newBoard(board));
+    }
+}
@@ -0,0 +1,43 @@
+package plachess.bench;
+
+import org.openjdk.jmh.annotations.*;
+import plachess.engine.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** full single-threaded perft in fixed depth, with immutable positions and with MutableBoardPosition */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PerftBenchmark {
+    @Param({"Array1DBoard", "Array2DBoard", "SparseBoard", "BitBoard", "PrimitiveBitBoard"})
+    public String board;
+
+    @Param({"opening", "middlegame", "endgame", "problem"})
+    public String position;
+
+    @Param({"3"})
+    public int depth;
+
+    private String xfen;
+
+    @Setup
+    public void setup() {
+        xfen = Corpus.getXFEN(position);
+    }
+
+    /** position is created in every invocation, since ArrayBoardPosition caches its children */
+    @Benchmark
+    public long perft() {
+        return Perft.run(BoardPosition.fromXFEN(xfen, Corpus.newBoard(board)), depth, 1).nodes;
+    }
+
+    /** board parameter only selects the board the position is read into, MutableBoardPosition converts it */
+    @Benchmark
+    public long perftMutable() {
+        return Perft.run(new MutableBoardPosition(BoardPosition.fromXFEN(xfen, Corpus.newBoard(board))), depth, 1).nodes;
+    }
+}
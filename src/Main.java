@@ -1,4 +1,5 @@
 import plachess.engine.*;
+import plachess.solver.HelpmateSolverTest;
 import plachess.solver.Solver;
 import plachess.solver.SolverFactory;
 
@@ -12,6 +13,16 @@ public class Main {
         Stopwatch sw = new Stopwatch();
 
         if(true) {
+            sw.message = "Perft testing MutableBoardPosition -> %dms\n";
+            sw.start();
+            Perft.test(new PrimitiveBitBoard(), true);
+            sw.finish(true);
+
+            sw.message = "Perft testing PrimitiveBitBoard -> %dms\n";
+            sw.start();
+            Perft.test(new PrimitiveBitBoard());
+            sw.finish(true);
+
             sw.message = "Perft testing BitBoard -> %dms\n";
             sw.start();
             Perft.test(new BitBoard());
@@ -29,6 +40,11 @@ public class Main {
         if(false) {
             BitBoardImplementation.getMoves(null, null, 0);
             BitBoardLayerTest.test();
+            BitBoardMagicTest.test();
+            TablebaseTest.test();
+            UnmoveGeneratorTest.test();
+            MoveTest.test();
+            HelpmateSolverTest.test();
             return;
         }
         // Helpmates
@@ -59,7 +75,7 @@ public class Main {
                     solutions.get(i).getBoard().toXFEN(),
                     numsOfMoves.get(i)));
         }
-        System.out.println(ArrayBoardPosition.spawnCount);
+        System.out.println(ArrayBoardPosition.spawnCount.sum());
 
         sw.finish(true);
     }
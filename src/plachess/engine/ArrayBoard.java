@@ -6,6 +6,9 @@ import java.util.ArrayList;
  * Abstract class implementing some of higher function methods with assumption of Board interface
  */
 public abstract class ArrayBoard implements Board {
+    /** attacked squares of each color (indexed by color.ordinal()), computed when asked for the first time */
+    private final Long[] attacked = new Long[Color.values().length];
+
     @Override
     public ArrayList<Move.MoveSimple> getSimpleMoves(Position from) {
         if(!isOccupied(from))
@@ -27,13 +30,23 @@ public abstract class ArrayBoard implements Board {
         return result;
     }
 
-    /** ignores enpassant */
+    /** ignores enpassant, uses attacked squares if they are already computed */
     @Override
     public boolean isThreatened(Piece piece) {
+        Long map = attacked[piece.color.opposite().ordinal()];
+        if(map != null)
+            return BitBoardLayer.isCell(map, piece.pos.x, piece.pos.y);
         for(PieceType type: PieceType.values())
             for(Position pos: ArrayBoardImplementation.getMoves(this, new Piece(piece.pos, piece.color, type), 2))
                 if(getPiece(pos).type == type)
                     return true;
         return false;
     }
+
+    @Override
+    public long attackedSquares(Color color) {
+        if(attacked[color.ordinal()] == null)
+            attacked[color.ordinal()] = Board.super.attackedSquares(color);
+        return attacked[color.ordinal()];
+    }
 }
@@ -93,6 +93,32 @@ public class ArrayBoardImplementation {
         return result;
     }
 
+    /**
+     * @return mask (see BitBoardLayer) of all squares attacked by piece with regard to other pieces,
+     *         empty squares and squares of pieces of the same color included
+     */
+    public static long getAttacks(Board board, Piece piece) {
+        long result = 0;
+        if(piece.type == PieceType.PAWN) {
+            for(int x = -1; x <= 1; x += 2) {
+                Position next = piece.pos.add(x, Rules.getColorDirection(piece.color));
+                if(Rules.isPositionValid(next))
+                    result |= BitBoardLayer.bit(next.x, next.y);
+            }
+            return result;
+        }
+        int move_range = MOVE_RANGE.get(piece.type);
+        for(Position direction: MOVE_DIRECTIONS.get(piece.type)) {
+            Position pos = piece.pos.add(direction);
+            for(int dist=1; dist <= move_range; ++dist, pos=pos.add(direction)) {
+                if(!Rules.isPositionValid(pos)) break;
+                result |= BitBoardLayer.bit(pos.x, pos.y);
+                if(board.isOccupied(pos)) break;
+            }
+        }
+        return result;
+    }
+
     /**
      * @param retMask 1=travel 2=capture
      * @return all reachable positions on board by simple moves with regard to other pieces
@@ -1,64 +1,84 @@
 package plachess.engine;
 
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ArrayBoardPosition implements BoardPosition {
-    public static int spawnCount=0;
+    /** number of created positions, shared by all threads */
+    public static final LongAdder spawnCount = new LongAdder();
 
     private final Board board;
     private final Color turnColor;
     private final boolean[] castling;
     private final Position enpassant;
     private final int halfMoveClock, fullMoveClock;
+    private final long hashKey;
 
-    private Map<Color, Piece> kings;
-    private Map<Color, Boolean> inCheck;
-    private Map<Color, Map<PieceType, Integer>> pieceCount;
+    private final Material material;
+    /** check status of each color (indexed by color.ordinal()), computed when asked for the first time */
+    private final Boolean[] inCheck = new Boolean[Color.values().length];
     private ArrayList<BoardPosition> nextMoves;
+    private GameStatus status;
 
     public ArrayBoardPosition(
             Board board, Color turnColor,
             boolean[] castling, Position enpassant,
             int halfMoveClock, int fullMoveClock) {
-        spawnCount += 1;
+        this(board, turnColor, castling, enpassant, halfMoveClock, fullMoveClock,
+                Zobrist.compute(board, turnColor, castling, enpassant));
+    }
+
+    public ArrayBoardPosition(
+            Board board, Color turnColor,
+            boolean[] castling, Position enpassant,
+            int halfMoveClock, int fullMoveClock,
+            long hashKey) {
+        this(board, turnColor, castling, enpassant, halfMoveClock, fullMoveClock, hashKey, Material.fromBoard(board));
+    }
+
+    /** material has to match board (see Material.update) */
+    public ArrayBoardPosition(
+            Board board, Color turnColor,
+            boolean[] castling, Position enpassant,
+            int halfMoveClock, int fullMoveClock,
+            long hashKey, Material material) {
+        spawnCount.increment();
         this.board = board;
         this.turnColor = turnColor;
         this.castling = castling;
         this.enpassant = enpassant;
         this.halfMoveClock = halfMoveClock;
         this.fullMoveClock = fullMoveClock;
-        initialize();
+        this.hashKey = hashKey;
+        this.material = material;
+        this.nextMoves = null;
     }
 
-    private void initialize() {
-        kings = new EnumMap<>(Color.class);
-        pieceCount = new EnumMap<>(Color.class);
-        for(Color c: Color.values()) {
-            pieceCount.put(c, new EnumMap<>(PieceType.class));
-            for (PieceType pt: PieceType.values())
-                pieceCount.get(c).put(pt, 0);
-        }
-
-        for(Piece piece: board.getAllPieces()) {
-            pieceCount.get(piece.color).compute(piece.type, (key, val) -> val + 1);
-            if(piece.type == PieceType.KING)
-                kings.put(piece.color, piece);
-        }
-
-        inCheck = new EnumMap<>(Color.class);
-        if(isKingValid())   // we will not look for checking pieces if kings are not meeting chess rules
-            for(Color color: Color.values())
-                inCheck.put(color, board.isThreatened(kings.get(color)));
+    public ArrayBoardPosition create(
+            Board board, Color turnColor,
+            boolean[] castling, Position enpassant,
+            int halfMoveClock, int fullMoveClock) {
+        return new ArrayBoardPosition(board, turnColor, castling, enpassant, halfMoveClock, fullMoveClock);
+    }
 
-        nextMoves = null;
+    public ArrayBoardPosition create(
+            Board board, Color turnColor,
+            boolean[] castling, Position enpassant,
+            int halfMoveClock, int fullMoveClock,
+            long hashKey) {
+        return new ArrayBoardPosition(board, turnColor, castling, enpassant, halfMoveClock, fullMoveClock, hashKey);
     }
 
+    @Override
     public ArrayBoardPosition create(
             Board board, Color turnColor,
             boolean[] castling, Position enpassant,
-            int halfMoveClock, int fullMoveClock) {
-        return new ArrayBoardPosition(board, turnColor, castling, enpassant, halfMoveClock, fullMoveClock);
+            int halfMoveClock, int fullMoveClock,
+            long hashKey, Material material) {
+        if(material == null)
+            return create(board, turnColor, castling, enpassant, halfMoveClock, fullMoveClock, hashKey);
+        return new ArrayBoardPosition(
+                board, turnColor, castling, enpassant, halfMoveClock, fullMoveClock, hashKey, material);
     }
 
     public void destroy() {
@@ -87,6 +107,9 @@ public class ArrayBoardPosition implements BoardPosition {
     @Override
     public int getFullMoveClock() { return fullMoveClock; }
 
+    @Override
+    public long getHashKey() { return hashKey; }
+
     @Override
     public Piece getPiece(Position pos) {
         return board.getPiece(pos);
@@ -109,37 +132,55 @@ public class ArrayBoardPosition implements BoardPosition {
 
     /** board has to be oriented white side down */
     public ArrayList<Move.MoveCastling> getCastlingMoves() {
+        return getCastlingMoves(this, material.getKing(turnColor));
+    }
+
+    /** castling moves of color on turn in bp whose king is given, board has to be oriented white side down */
+    static ArrayList<Move.MoveCastling> getCastlingMoves(BoardPosition bp, Piece king) {
         ArrayList<Move.MoveCastling> result = new ArrayList<>();
-        if(isCheck(turnColor))
+        Color turnColor = bp.getTurnColor();
+        Board board = bp.getBoard();
+        if(bp.isCheck(turnColor))
             return result;
-        Piece king = kings.get(turnColor);
-        if(canCastle(turnColor, PieceType.KING) &&
-                Stream.of(5, 6).noneMatch(x -> board.isOccupied(x, king.pos.y)) &&
-                Stream.of(5, 6).noneMatch(x -> board.isThreatened(king.setPos(x, king.pos.y))))
+        long attacked = board.attackedSquares(turnColor.opposite());
+        int y = king.pos.y;
+        if(bp.canCastle(turnColor, PieceType.KING) && isEmpty(board, y, 5, 6) &&
+                (attacked & (BitBoardLayer.bit(5, y) | BitBoardLayer.bit(6, y))) == 0)
             result.add(new Move.MoveCastling(turnColor, PieceType.KING));
-        if(canCastle(turnColor, PieceType.QUEEN) &&
-                Stream.of(1, 2, 3).noneMatch(x -> board.isOccupied(x, king.pos.y)) &&
-                Stream.of(2, 3).noneMatch(x -> board.isThreatened(king.setPos(x, king.pos.y))))
+        if(bp.canCastle(turnColor, PieceType.QUEEN) && isEmpty(board, y, 1, 3) &&
+                (attacked & (BitBoardLayer.bit(2, y) | BitBoardLayer.bit(3, y))) == 0)
             result.add(new Move.MoveCastling(turnColor, PieceType.QUEEN));
         return result;
     }
 
+    /** @return whether squares from fromX to toX (inclusive) of row y are empty */
+    private static boolean isEmpty(Board board, int y, int fromX, int toX) {
+        for(int x = fromX; x <= toX; ++x)
+            if(board.isOccupied(x, y))
+                return false;
+        return true;
+    }
+
     private ArrayList<Move> getMoves() {
-        ArrayList<Move> moves = new ArrayList<>(board.getAllSimpleMoves(getTurnColor()));
-        ArrayList<Move> newMoves = new ArrayList<>();
-        for(Move move: moves) {
-            if(!(move instanceof Move.MoveSimple)) { // TODO validate that this works as expected
-                newMoves.add(move);
-                continue;
-            }
-            Move.MoveSimple moveS = (Move.MoveSimple)move;
-            if(Rules.isPromotion(board.getPiece(moveS.posFrom), moveS.posTo))
+        return getMoves(this, material.getKing(turnColor));
+    }
+
+    /**
+     * pseudo-legal moves of color on turn in bp whose king is given
+     * (moves can leave own king in check, castling is fully validated)
+     */
+    static ArrayList<Move> getMoves(BoardPosition bp, Piece king) {
+        Board board = bp.getBoard();
+        Position enpassant = bp.getEnpassant();
+        List<Move.MoveSimple> simpleMoves = board.getAllSimpleMoves(bp.getTurnColor());
+        ArrayList<Move> moves = new ArrayList<>(simpleMoves.size() + 4);
+        for(Move.MoveSimple move: simpleMoves) {
+            if(Rules.isPromotion(board.getPiece(move.posFrom), move.posTo))
                 for(PieceType t: Rules.PAWN_PROMOTION_OPTIONS)
-                    newMoves.add(new Move.MovePawnPromotion(moveS.posFrom, moveS.posTo, t));
+                    moves.add(new Move.MovePawnPromotion(move.posFrom, move.posTo, t));
             else
-                newMoves.add(move);
+                moves.add(move);
         }
-        moves = newMoves;
 
         if(enpassant != null) {
             ArrayList<Position> involved = Rules.getEnpassantInvolvedPositions(enpassant);
@@ -153,7 +194,7 @@ public class ArrayBoardPosition implements BoardPosition {
             }
         }
 
-        moves.addAll(getCastlingMoves());
+        moves.addAll(getCastlingMoves(bp, king));
 
         return moves;
     }
@@ -164,9 +205,10 @@ public class ArrayBoardPosition implements BoardPosition {
             return nextMoves;
 
         nextMoves = new ArrayList<>();
-        for(Move move: getMoves()) {
+        boolean legal = isStrictlyGenerated();
+        for(Move move: legal ? getLegalMoves() : getMoves()) {
             BoardPosition newBP = move.apply(this).frst;
-            if(newBP == null || !newBP.isKingValid() || newBP.isCheck(turnColor))
+            if(newBP == null || (!legal && (!newBP.isKingValid() || newBP.isCheck(turnColor))))
                 continue;
 //            System.out.println(move);
             nextMoves.add(newBP);
@@ -175,14 +217,99 @@ public class ArrayBoardPosition implements BoardPosition {
         return nextMoves;
     }
 
+    /**
+     * on PrimitiveBitBoard (with valid kings) moves are generated strictly legal by MoveGenerator,
+     * otherwise pseudo-legal moves are applied and positions leaving own king in check are thrown away
+     */
+    private boolean isStrictlyGenerated() {
+        return board instanceof PrimitiveBitBoard && isKingValid();
+    }
+
+    /** @return legal moves generated by MoveGenerator, board has to be PrimitiveBitBoard */
+    private List<Move> getLegalMoves() {
+        MoveList packed = new MoveList();
+        new MoveGenerator(this).generateMoves(packed);
+        List<Move> moves = new ArrayList<>(packed.size());
+        for(int i = 0; i < packed.size(); ++i)
+            moves.add(PackedMove.toMove(packed.get(i)));
+        return moves;
+    }
+
+    /**
+     * on PrimitiveBitBoard counted from attack masks (see MoveGenerator), on other boards every pseudo-legal move
+     * is only applied to board and own king is tested for being threatened
+     */
+    @Override
+    public int countLegalMoves() {
+        if(nextMoves != null || !isKingValid())
+            return getNextPositions().size();
+        if(board instanceof PrimitiveBitBoard)
+            return new MoveGenerator(this).countLegalMoves();
+        int count = 0;
+        for(Move move: getMoves())
+            if(isLegal(move))
+                count++;
+        return count;
+    }
+
+    @Override
+    public boolean hasLegalMove() {
+        if(nextMoves != null || !isKingValid())
+            return !getNextPositions().isEmpty();
+        if(board instanceof PrimitiveBitBoard)
+            return new MoveGenerator(this).hasLegalMove();
+        for(Move move: getMoves())
+            if(isLegal(move))
+                return true;
+        return false;
+    }
+
+    @Override
+    public GameStatus classify() {
+        if(status == null)
+            status = BoardPosition.classify(this);
+        return status;
+    }
+
+    /** @return whether pseudo-legal move does not leave own king threatened */
+    private boolean isLegal(Move move) {
+        Piece king = material.getKing(turnColor);
+        List<Pair<Position, Piece>> work;
+        if(move instanceof Move.MoveCastling) { // castling moves are fully validated by getCastlingMoves
+            return true;
+        } else if(move instanceof Move.MoveSimple || move instanceof Move.MovePawnPromotion) {
+            Position posFrom = move instanceof Move.MoveSimple ?
+                    ((Move.MoveSimple)move).posFrom : ((Move.MovePawnPromotion)move).posFrom;
+            Position posTo = move instanceof Move.MoveSimple ?
+                    ((Move.MoveSimple)move).posTo : ((Move.MovePawnPromotion)move).posTo;
+            Piece piece = board.getPiece(posFrom), captured = board.getPiece(posTo);
+            if(!Piece.isEmpty(captured) && (captured.color == turnColor || captured.type == PieceType.KING))
+                return false;
+            if(piece.type == PieceType.KING) {
+                if(BitBoardLayer.isCell(board.attackedSquares(turnColor.opposite()), posTo.x, posTo.y))
+                    return false; // target attacked through the king is found by the test below
+                king = piece.setPos(posTo);
+            }
+            work = Arrays.asList(new Pair<>(posFrom, Piece.empty()), new Pair<>(posTo, piece));
+        } else {
+            Move.MoveEnpassant m = (Move.MoveEnpassant)move;
+            work = Arrays.asList(
+                    new Pair<>(m.posFrom, Piece.empty()),
+                    new Pair<>(Position.getNew(m.posTo.x, m.posFrom.y), Piece.empty()),
+                    new Pair<>(m.posTo, board.getPiece(m.posFrom)));
+        }
+        return !board.set(work).isThreatened(king);
+    }
+
     public ArrayList<BoardPosition> getNextPositions(Perft.Stats stats) {
         if(stats == null) return getNextPositions();
 
         nextMoves = new ArrayList<>();
-        for(Move move: getMoves()) {
+        boolean legal = isStrictlyGenerated();
+        for(Move move: legal ? getLegalMoves() : getMoves()) {
             Pair<BoardPosition, Boolean> moveRes = move.apply(this);
             BoardPosition newBP = moveRes.frst;
-            if(newBP == null || !newBP.isKingValid() || newBP.isCheck(turnColor))
+            if(newBP == null || (!legal && (!newBP.isKingValid() || newBP.isCheck(turnColor))))
                 continue;
 
             if(moveRes.scnd) stats.captures++;
@@ -200,9 +327,9 @@ public class ArrayBoardPosition implements BoardPosition {
     @Override
     public boolean isKingValid() {
         for(Color c: Color.values())
-            if(pieceCount.get(c).get(PieceType.KING) != 1)
+            if(material.count(c, PieceType.KING) != 1)
                 return false;
-        Position kingDistance = kings.get(Color.WHITE).pos.sub(kings.get(Color.BLACK).pos);
+        Position kingDistance = material.getKing(Color.WHITE).pos.sub(material.getKing(Color.BLACK).pos);
         return Math.abs(kingDistance.x) + Math.abs(kingDistance.y) != 1;
     }
 
@@ -210,13 +337,13 @@ public class ArrayBoardPosition implements BoardPosition {
     public boolean isDeadPosition() {
         for(PieceType t: Arrays.asList(PieceType.PAWN, PieceType.ROOK, PieceType.QUEEN))
             for(Color c: Color.values())
-                if(pieceCount.get(c).get(t) > 0)
+                if(material.count(c, t) > 0)
                     return false;
 
-        int kB = pieceCount.get(Color.BLACK).get(PieceType.KNIGHT);
-        int kW = pieceCount.get(Color.WHITE).get(PieceType.KNIGHT);
-        int bB = pieceCount.get(Color.BLACK).get(PieceType.BISHOP);
-        int bW = pieceCount.get(Color.WHITE).get(PieceType.BISHOP);
+        int kB = material.count(Color.BLACK, PieceType.KNIGHT);
+        int kW = material.count(Color.WHITE, PieceType.KNIGHT);
+        int bB = material.count(Color.BLACK, PieceType.BISHOP);
+        int bW = material.count(Color.WHITE, PieceType.BISHOP);
         int sum = kB + kW + bB + bW;
         if(sum > 2)
             return false;
@@ -240,9 +367,16 @@ public class ArrayBoardPosition implements BoardPosition {
         return getHalfMoveClock() >= Rules.DRAW_HALFMOVES_CLAIM;
     }
 
+    @Override
+    public Material getMaterial() { return material; }
+
     @Override
     public boolean isCheck(Color color) {
-        return inCheck.get(color);
+        if(inCheck[color.ordinal()] == null) {
+            Piece king = material.getKing(color);
+            inCheck[color.ordinal()] = king != null && board.isThreatened(king);
+        }
+        return inCheck[color.ordinal()];
     }
 
     public boolean test() {
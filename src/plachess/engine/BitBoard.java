@@ -9,6 +9,8 @@ public class BitBoard implements Board { // TODO make variables final
     protected BitBoardLayer occupiedLayer;
     protected EnumMap<PieceType, BitBoardLayer> pieceLayers;
     protected EnumMap<Color, BitBoardLayer> colorLayers;
+    /** attacked squares of each color (indexed by color.ordinal()), computed when asked for the first time */
+    private final Long[] attacked = new Long[Color.values().length];
 
     public static class BitBoardBuilder extends BitBoard {
 
@@ -32,6 +34,12 @@ public class BitBoard implements Board { // TODO make variables final
                 this.colorLayers.put(c, new BitBoardLayer.BitBoardLayerBuilder(bb.colorLayers.get(c)));
         }
 
+        /** not cached, builder is changed in place */
+        @Override
+        public long attackedSquares(Color color) {
+            return computeAttackedSquares(color);
+        }
+
         public BitBoard build() {
             BitBoard result = new BitBoard(null);
             result.occupiedLayer = BitBoardLayer.BitBoardLayerBuilder.build(this.occupiedLayer);
@@ -103,29 +111,50 @@ public class BitBoard implements Board { // TODO make variables final
         return result;
     }
 
+    /** @return mask of enemy pieces which could capture given piece (all types at once, like PrimitiveBitBoard.getAttackers) */
+    protected long getThreateningLayer(Piece piece) {
+        int bi = BitBoardLayer.posToIndex(piece.pos.x, piece.pos.y);
+        long occupied = occupiedLayer.get();
+        long queens = pieceLayers.get(PieceType.QUEEN).get();
+        return colorLayers.get(piece.color.opposite()).get() & (
+                (BitBoardImplementation.getAttackPatternPawn(piece.color, bi) & pieceLayers.get(PieceType.PAWN).get()) |
+                (BitBoardImplementation.getAttackPattern(PieceType.KNIGHT, bi) & pieceLayers.get(PieceType.KNIGHT).get()) |
+                (BitBoardImplementation.getAttackPattern(PieceType.KING, bi) & pieceLayers.get(PieceType.KING).get()) |
+                (BitBoardMagic.bishopAttacks(bi, occupied) & (pieceLayers.get(PieceType.BISHOP).get() | queens)) |
+                (BitBoardMagic.rookAttacks(bi, occupied) & (pieceLayers.get(PieceType.ROOK).get() | queens)));
+    }
+
     @Override
     public ArrayList<Position> getThreatening(Piece piece) {
-        ArrayList<Position> result = new ArrayList<>();
-        for(PieceType type: BitBoardImplementation.supportedPieceTypes) {
-            BitBoardLayer layer = pieceLayers.get(type);
-            if(layer == null) continue;
-            for(Position pos: BitBoardImplementation.getMoves(this, new Piece(piece.pos, piece.color, type), 2))
-                if(layer.isCell(pos.x, pos.y))
-                    result.add(pos);
-        }
-        return result;
+        return new BitBoardLayer(getThreateningLayer(piece)).getAllOnes();
     }
 
+    /** uses attacked squares if they are already computed */
     @Override
     public boolean isThreatened(Piece piece) {
-        for(PieceType type: BitBoardImplementation.supportedPieceTypes) {
-            BitBoardLayer layer = pieceLayers.get(type);
-            if(layer == null) continue;
-            for(Position pos: BitBoardImplementation.getMoves(this, new Piece(piece.pos, piece.color, type), 2))
-                if(layer.isCell(pos.x, pos.y))
-                    return true;
-        }
-        return false;
+        Long map = attacked[piece.color.opposite().ordinal()];
+        if(map != null)
+            return BitBoardLayer.isCell(map, piece.pos.x, piece.pos.y);
+        return getThreateningLayer(piece) != 0;
+    }
+
+    @Override
+    public long attackedSquares(Color color) {
+        if(attacked[color.ordinal()] == null)
+            attacked[color.ordinal()] = computeAttackedSquares(color);
+        return attacked[color.ordinal()];
+    }
+
+    /** computed set-wise (see BitBoardLayer) */
+    protected long computeAttackedSquares(Color color) {
+        long occupied = occupiedLayer.get();
+        long own = colorLayers.get(color).get();
+        long queens = pieceLayers.get(PieceType.QUEEN).get() & own;
+        return BitBoardLayer.pawnFill(pieceLayers.get(PieceType.PAWN).get() & own, color) |
+                BitBoardLayer.knightFill(pieceLayers.get(PieceType.KNIGHT).get() & own) |
+                BitBoardLayer.kingFill(pieceLayers.get(PieceType.KING).get() & own) |
+                BitBoardLayer.diagonalFill((pieceLayers.get(PieceType.BISHOP).get() & own) | queens, occupied) |
+                BitBoardLayer.straightFill((pieceLayers.get(PieceType.ROOK).get() & own) | queens, occupied);
     }
 
     @Override
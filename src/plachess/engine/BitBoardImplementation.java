@@ -1,12 +1,8 @@
 package plachess.engine;
 
-import javax.sql.ConnectionPoolDataSource;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class BitBoardImplementation {
     /** list of PieceTypes which can be handled by this implementation */
@@ -17,22 +13,6 @@ public class BitBoardImplementation {
     private static final EnumMap<Color, BitBoardLayer[]> attackPatternsPawn = new EnumMap<>(Color.class);
     private static final EnumMap<Color, BitBoardLayer[]> movePatternsPawn = new EnumMap<>(Color.class);
 
-    /** angles by which the board should be rotated for all sliding PieceTypes */
-    private static final EnumMap<PieceType, ArrayList<Integer>> attackAngles =
-        new EnumMap<PieceType, ArrayList<Integer>>(Stream.of(
-            new Pair<>(PieceType.BISHOP, new ArrayList<>(Arrays.asList(1, 3))),
-            new Pair<>(PieceType.ROOK, new ArrayList<>(Arrays.asList(0, 2))),
-            new Pair<>(PieceType.QUEEN, new ArrayList<>(Arrays.asList(0, 2, 3, 1)))).
-            collect(Collectors.toMap(p -> p.frst, p -> p.scnd))
-    );
-    /** helper mapping from angle-key to vector */
-    private static final Position[] angleDirection = {
-            Position.getNew(1, 0),
-            Position.getNew(1, 1),
-            Position.getNew(0, 1),
-            Position.getNew(-1, 1)
-    };
-
     static {
         // building attack masks for all piece types except pawn
         for(PieceType pt: supportedPieceTypes) {
@@ -87,6 +67,16 @@ public class BitBoardImplementation {
 
     }
 
+    /** @return squares attacked by non-sliding PieceType (KNIGHT, KING) from given index */
+    public static long getAttackPattern(PieceType type, int index) {
+        return attackPatterns.get(type)[index].get();
+    }
+
+    /** @return squares attacked by pawn of given color from given index */
+    public static long getAttackPatternPawn(Color color, int index) {
+        return attackPatternsPawn.get(color)[index].get();
+    }
+
     public static ArrayList<Position> getMoves(BitBoard board, Piece piece, int retMask) {
         if (Piece.isEmpty(piece))
             return new ArrayList<>();
@@ -94,11 +84,12 @@ public class BitBoardImplementation {
             return getMovesPawn(board, piece, retMask);
         boolean retTravel = (retMask & 1) != 0,
                 retCapture = (retMask & 2) != 0;
-        BitBoardLayer attackPattern = attackPatterns.get(piece.type)[BitBoardLayer.posToIndex(piece.pos.x, piece.pos.y)];
+        int bi = BitBoardLayer.posToIndex(piece.pos.x, piece.pos.y);
         BitBoardLayer enemyLayer = board.colorLayers.get(piece.color.opposite());
 
         ArrayList<Position> result = new ArrayList<>();
         if(piece.type == PieceType.KNIGHT || piece.type == PieceType.KING) {
+            BitBoardLayer attackPattern = attackPatterns.get(piece.type)[bi];
             if(retTravel) {
                 BitBoardLayer freeLayer = board.occupiedLayer.not().and(attackPattern);
                 result.addAll(freeLayer.getAllOnes());
@@ -108,42 +99,12 @@ public class BitBoardImplementation {
                 result.addAll(attackLayer.getAllOnes());
             }
         } else {
-            BitBoardLayer blocking = board.occupiedLayer.and(attackPattern);
-            for(int angle: attackAngles.get(piece.type)) {
-                boolean isRot45 = (angle & 1) != 0;
-                boolean isRot90 = (angle & 2) != 0;
-
-                Position rotPos = isRot90 ?
-                        Position.getNew(piece.pos.y, BitBoardLayer.BS-1 - piece.pos.x) :
-                        Position.getNew(piece.pos.x, piece.pos.y);
-                int rowPos = isRot45 ? Math.min(rotPos.x, rotPos.y) : rotPos.x;
-
-                BitBoardLayer rotated = blocking.rotate(angle);
-
-                byte row;
-                if(isRot45)
-                    row = BitBoardLayer.getDiagonalFromRotated45(rotated, rotPos.x, rotPos.y);
-                else
-                    row = rotated.getRow(rotPos.y);
-
-                for(int dir = -1; dir <= 1; dir += 2) {
-                    Position dirPos = Position.getNew(angleDirection[angle].x * dir, angleDirection[angle].y * dir);
-                    Position pos = piece.pos;
-                    for(int i = rowPos + dir; ; i += dir) {
-                        pos = pos.add(dirPos);
-                        if(!Rules.isPositionValid(pos))
-                            break;
-                        if((row & (1 << i)) == 0) {
-                            if(retTravel)
-                                result.add(pos);
-                        } else {
-                            if(retCapture && enemyLayer.isCell(pos.x, pos.y))
-                                result.add(pos);
-                            break;
-                        }
-                    }
-                }
-            }
+            // sliding pieces - whole attack set including first blockers in one lookup
+            long attacks = BitBoardMagic.getAttacks(piece.type, bi, board.occupiedLayer.get());
+            if(retTravel)
+                result.addAll(new BitBoardLayer(attacks & ~board.occupiedLayer.get()).getAllOnes());
+            if(retCapture)
+                result.addAll(new BitBoardLayer(attacks & enemyLayer.get()).getAllOnes());
         }
 
         return result;
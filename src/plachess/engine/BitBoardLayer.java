@@ -20,6 +20,82 @@ public class BitBoardLayer {
         return y * BS + x;
     }
 
+    /*
+    static counterparts of instance methods working directly on primitive value, they never allocate
+     */
+    public static long bit(int index) { return 1L << index; }
+    public static long bit(int x, int y) { return 1L << posToIndex(x, y); }
+    public static boolean isCell(long b, int index) { return (b & (1L << index)) != 0; }
+    public static boolean isCell(long b, int x, int y) { return isCell(b, posToIndex(x, y)); }
+    public static long setCell(long b, int index, int val) { return b & ~(1L << index) | ((long) val << index); }
+    public static long setCell(long b, int x, int y, int val) { return setCell(b, posToIndex(x, y), val); }
+    /** @return index of lowest set bit (64 for empty) */
+    public static int firstIndex(long b) { return Long.numberOfTrailingZeros(b); }
+    /** @return value without its lowest set bit */
+    public static long popFirst(long b) { return b & (b - 1); }
+
+    /*
+    set-wise attacks of all pieces in given mask at once by shifting and masking (Kogge-Stone fills),
+    no tables and no per-piece loops, direction is given by rotation (north +8, east +1)
+    and by mask of squares which cannot be reached without wrapping around the board
+     */
+    private static final long NOT_FILE_A = 0xFEFEFEFEFEFEFEFEL;
+    private static final long NOT_FILE_H = 0x7F7F7F7F7F7F7F7FL;
+    private static final long NOT_FILE_AB = 0xFCFCFCFCFCFCFCFCL;
+    private static final long NOT_FILE_GH = 0x3F3F3F3F3F3F3F3FL;
+    private static final long NOT_ROW_1 = 0xFFFFFFFFFFFFFF00L;
+    private static final long NOT_ROW_8 = 0x00FFFFFFFFFFFFFFL;
+
+    /** @return squares attacked from gen in direction r (rotation) with wrap mask, sliding through empty squares */
+    private static long slide(long gen, long empty, int r, long wrap) {
+        empty &= wrap;
+        gen |= empty & Long.rotateLeft(gen, r);
+        empty &= Long.rotateLeft(empty, r);
+        gen |= empty & Long.rotateLeft(gen, 2 * r);
+        empty &= Long.rotateLeft(empty, 2 * r);
+        gen |= empty & Long.rotateLeft(gen, 4 * r);
+        return Long.rotateLeft(gen, r) & wrap;
+    }
+
+    /** @return squares attacked by all diagonal sliders (bishops, queens) of mask, blocking pieces included */
+    public static long diagonalFill(long sliders, long occupied) {
+        long empty = ~occupied;
+        return slide(sliders, empty, 9, NOT_FILE_A & NOT_ROW_1) |
+                slide(sliders, empty, 7, NOT_FILE_H & NOT_ROW_1) |
+                slide(sliders, empty, -7, NOT_FILE_A & NOT_ROW_8) |
+                slide(sliders, empty, -9, NOT_FILE_H & NOT_ROW_8);
+    }
+
+    /** @return squares attacked by all straight sliders (rooks, queens) of mask, blocking pieces included */
+    public static long straightFill(long sliders, long occupied) {
+        long empty = ~occupied;
+        return slide(sliders, empty, 8, NOT_ROW_1) |
+                slide(sliders, empty, -8, NOT_ROW_8) |
+                slide(sliders, empty, 1, NOT_FILE_A) |
+                slide(sliders, empty, -1, NOT_FILE_H);
+    }
+
+    /** @return squares attacked by all knights of mask */
+    public static long knightFill(long knights) {
+        long l1 = (knights >>> 1) & NOT_FILE_H, l2 = (knights >>> 2) & NOT_FILE_GH;
+        long r1 = (knights << 1) & NOT_FILE_A, r2 = (knights << 2) & NOT_FILE_AB;
+        long h1 = l1 | r1, h2 = l2 | r2;
+        return (h1 << 16) | (h1 >>> 16) | (h2 << 8) | (h2 >>> 8);
+    }
+
+    /** @return squares attacked by all kings of mask */
+    public static long kingFill(long kings) {
+        long sides = ((kings << 1) & NOT_FILE_A) | ((kings >>> 1) & NOT_FILE_H);
+        long row = kings | sides;
+        return sides | (row << 8) | (row >>> 8);
+    }
+
+    /** @return squares attacked by all pawns of mask of given color */
+    public static long pawnFill(long pawns, Color color) {
+        long sides = ((pawns << 1) & NOT_FILE_A) | ((pawns >>> 1) & NOT_FILE_H);
+        return Rules.getColorDirection(color) > 0 ? sides << 8 : sides >>> 8;
+    }
+
     /**
      * class with the same functionality as BitBoardLayer,
      * but mutable and therefore with support for batched changes
@@ -245,28 +321,43 @@ public class BitBoardLayer {
 
     /** reverse rows */
     public BitBoardLayer flipHorizontal() {
-        return new BitBoardLayer(Long.reverseBytes(this.b));
+        return new BitBoardLayer(flipHorizontal(this.b));
     }
 
     /** reverse columns */
     public BitBoardLayer flipVertical() {
-        return flipHorizontal().rotate180();
+        return new BitBoardLayer(flipVertical(this.b));
     }
 
     /** flip by lower-left to upper-right diagonal */
     public BitBoardLayer flipDiagonal() {
+        return new BitBoardLayer(flipDiagonal(this.b));
+    }
+
+    /** reverse rows */
+    public static long flipHorizontal(long b) {
+        return Long.reverseBytes(b);
+    }
+
+    /** reverse columns */
+    public static long flipVertical(long b) {
+        return Long.reverse(Long.reverseBytes(b));
+    }
+
+    /** flip by lower-left to upper-right diagonal */
+    public static long flipDiagonal(long b) {
         final long k1 = 0x5500550055005500L;
         final long k2 = 0x3333000033330000L;
         final long k4 = 0x0F0F0F0F00000000L;
 
-        long t, x = this.b;
+        long t, x = b;
         t  = k4 & (x ^ (x << 28));
         x ^=       t ^ (t >> 28) ;
         t  = k2 & (x ^ (x << 14));
         x ^=       t ^ (t >> 14) ;
         t  = k1 & (x ^ (x <<  7));
         x ^=       t ^ (t >>  7) ;
-        return new BitBoardLayer(x);
+        return x;
     }
 
     /** flip by upper-left to lower-right diagonal */
@@ -0,0 +1,140 @@
+package plachess.engine;
+
+/**
+ * magic bitboard tables for sliding pieces
+ * attack set of bishop/rook/queen from any square for any occupancy is one multiplication and one lookup
+ * magic numbers are searched for at class initialization with fixed seeds (one per row, known to converge fast),
+ * so tables are always the same
+ */
+public class BitBoardMagic {
+    private static final long[] SEEDS = {728, 10316, 55013, 32803, 12281, 15100, 16645, 255};
+
+    private static final long[] BISHOP_MASK = new long[BitBoardLayer.BA];
+    private static final long[] ROOK_MASK = new long[BitBoardLayer.BA];
+    private static final long[] BISHOP_MAGIC = new long[BitBoardLayer.BA];
+    private static final long[] ROOK_MAGIC = new long[BitBoardLayer.BA];
+    private static final int[] BISHOP_SHIFT = new int[BitBoardLayer.BA];
+    private static final int[] ROOK_SHIFT = new int[BitBoardLayer.BA];
+    private static final long[][] BISHOP_ATTACKS = new long[BitBoardLayer.BA][];
+    private static final long[][] ROOK_ATTACKS = new long[BitBoardLayer.BA][];
+
+    private static final int[][] BISHOP_DIRECTIONS = {{-1, -1}, {-1, 1}, {1, -1}, {1, 1}};
+    private static final int[][] ROOK_DIRECTIONS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+
+    static {
+        for(int i = 0; i < BitBoardLayer.BA; ++i) {
+            long[] random = {SEEDS[i / BitBoardLayer.BS]};
+            BISHOP_MASK[i] = relevantMask(i, BISHOP_DIRECTIONS);
+            ROOK_MASK[i] = relevantMask(i, ROOK_DIRECTIONS);
+            BISHOP_SHIFT[i] = BitBoardLayer.BA - Long.bitCount(BISHOP_MASK[i]);
+            ROOK_SHIFT[i] = BitBoardLayer.BA - Long.bitCount(ROOK_MASK[i]);
+            BISHOP_ATTACKS[i] = new long[1 << Long.bitCount(BISHOP_MASK[i])];
+            ROOK_ATTACKS[i] = new long[1 << Long.bitCount(ROOK_MASK[i])];
+            BISHOP_MAGIC[i] = findMagic(i, BISHOP_MASK[i], BISHOP_SHIFT[i], BISHOP_DIRECTIONS, BISHOP_ATTACKS[i], random);
+            ROOK_MAGIC[i] = findMagic(i, ROOK_MASK[i], ROOK_SHIFT[i], ROOK_DIRECTIONS, ROOK_ATTACKS[i], random);
+        }
+    }
+
+    /** @return attack set of bishop standing on index with given occupancy (first blockers included) */
+    public static long bishopAttacks(int index, long occupied) {
+        return BISHOP_ATTACKS[index][(int)(((occupied & BISHOP_MASK[index]) * BISHOP_MAGIC[index]) >>> BISHOP_SHIFT[index])];
+    }
+
+    /** @return attack set of rook standing on index with given occupancy (first blockers included) */
+    public static long rookAttacks(int index, long occupied) {
+        return ROOK_ATTACKS[index][(int)(((occupied & ROOK_MASK[index]) * ROOK_MAGIC[index]) >>> ROOK_SHIFT[index])];
+    }
+
+    /** @return attack set of queen standing on index with given occupancy (first blockers included) */
+    public static long queenAttacks(int index, long occupied) {
+        return bishopAttacks(index, occupied) | rookAttacks(index, occupied);
+    }
+
+    /** @return attack set of given sliding PieceType, 0 for non-sliding types */
+    public static long getAttacks(PieceType type, int index, long occupied) {
+        switch(type) {
+            case BISHOP: return bishopAttacks(index, occupied);
+            case ROOK: return rookAttacks(index, occupied);
+            case QUEEN: return queenAttacks(index, occupied);
+            default: return 0;
+        }
+    }
+
+    public static boolean isSliding(PieceType type) {
+        return type == PieceType.BISHOP || type == PieceType.ROOK || type == PieceType.QUEEN;
+    }
+
+    /** attacks computed by walking every ray square by square, used for building and verifying tables */
+    public static long slowAttacks(int index, long occupied, int[][] directions) {
+        long result = 0;
+        int x0 = index % BitBoardLayer.BS, y0 = index / BitBoardLayer.BS;
+        for(int[] dir: directions) {
+            for(int x = x0 + dir[0], y = y0 + dir[1];
+                    x >= 0 && x < BitBoardLayer.BS && y >= 0 && y < BitBoardLayer.BS;
+                    x += dir[0], y += dir[1]) {
+                long bit = 1L << BitBoardLayer.posToIndex(x, y);
+                result |= bit;
+                if((occupied & bit) != 0)
+                    break;
+            }
+        }
+        return result;
+    }
+
+    public static long slowBishopAttacks(int index, long occupied) { return slowAttacks(index, occupied, BISHOP_DIRECTIONS); }
+    public static long slowRookAttacks(int index, long occupied) { return slowAttacks(index, occupied, ROOK_DIRECTIONS); }
+
+    /** squares whose occupancy matters for slider on index (rays without the last square on the edge) */
+    private static long relevantMask(int index, int[][] directions) {
+        long result = 0;
+        int x0 = index % BitBoardLayer.BS, y0 = index / BitBoardLayer.BS;
+        for(int[] dir: directions) {
+            for(int x = x0 + dir[0], y = y0 + dir[1];
+                    x + dir[0] >= 0 && x + dir[0] < BitBoardLayer.BS && y + dir[1] >= 0 && y + dir[1] < BitBoardLayer.BS;
+                    x += dir[0], y += dir[1])
+                result |= 1L << BitBoardLayer.posToIndex(x, y);
+        }
+        return result;
+    }
+
+    /** xorshift64* generator, state is kept in the first element of given array */
+    private static long nextRandom(long[] state) {
+        long s = state[0];
+        s ^= s >>> 12;
+        s ^= s << 25;
+        s ^= s >>> 27;
+        state[0] = s;
+        return s * 2685821657736338717L;
+    }
+
+    /** tries random sparse numbers until one maps all subsets of mask without destructive collision */
+    private static long findMagic(int index, long mask, int shift, int[][] directions, long[] table, long[] random) {
+        int size = 1 << Long.bitCount(mask);
+        long[] occupancies = new long[size];
+        long[] attacks = new long[size];
+        long subset = 0;
+        for(int i = 0; i < size; ++i) { // carry-rippler enumeration of all subsets of mask
+            occupancies[i] = subset;
+            attacks[i] = slowAttacks(index, subset, directions);
+            subset = (subset - mask) & mask;
+        }
+
+        int[] epoch = new int[size];
+        for(int attempt = 1; ; ++attempt) {
+            long magic = nextRandom(random) & nextRandom(random) & nextRandom(random);
+            if(Long.bitCount((mask * magic) >>> 56) < 6)
+                continue;
+            boolean ok = true;
+            for(int i = 0; i < size && ok; ++i) {
+                int key = (int)((occupancies[i] * magic) >>> shift);
+                if(epoch[key] != attempt) {
+                    epoch[key] = attempt;
+                    table[key] = attacks[i];
+                } else if(table[key] != attacks[i])
+                    ok = false;
+            }
+            if(ok)
+                return magic;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package plachess.engine;
+
+import java.util.Random;
+
+/** testing of BitBoardMagic lookups and BitBoardLayer fills against walking the rays */
+public class BitBoardMagicTest {
+    private static Random random = new Random();
+
+    public static boolean testAttacks() {
+        int count = 100000;
+        for(int ci = 0; ci < count; ++ci) {
+            long occupied = random.nextLong() & random.nextLong();
+            int index = random.nextInt(BitBoardLayer.BA);
+            if(BitBoardMagic.bishopAttacks(index, occupied) != BitBoardMagic.slowBishopAttacks(index, occupied) ||
+                    BitBoardMagic.rookAttacks(index, occupied) != BitBoardMagic.slowRookAttacks(index, occupied)) {
+                System.out.printf("WA: index=%d\n%s", index, new BitBoardLayer(occupied));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** fills of random sets of pieces against union of attacks of single pieces */
+    public static boolean testFills() {
+        int count = 100000;
+        for(int ci = 0; ci < count; ++ci) {
+            long occupied = random.nextLong() & random.nextLong();
+            long pieces = occupied & random.nextLong() & random.nextLong();
+            long diagonal = 0, straight = 0, knight = 0, king = 0, white = 0, black = 0;
+            for(long b = pieces; b != 0; b = BitBoardLayer.popFirst(b)) {
+                int index = BitBoardLayer.firstIndex(b);
+                diagonal |= BitBoardMagic.slowBishopAttacks(index, occupied);
+                straight |= BitBoardMagic.slowRookAttacks(index, occupied);
+                knight |= BitBoardImplementation.getAttackPattern(PieceType.KNIGHT, index);
+                king |= BitBoardImplementation.getAttackPattern(PieceType.KING, index);
+                white |= BitBoardImplementation.getAttackPatternPawn(Color.WHITE, index);
+                black |= BitBoardImplementation.getAttackPatternPawn(Color.BLACK, index);
+            }
+            if(BitBoardLayer.diagonalFill(pieces, occupied) != diagonal ||
+                    BitBoardLayer.straightFill(pieces, occupied) != straight ||
+                    BitBoardLayer.knightFill(pieces) != knight || BitBoardLayer.kingFill(pieces) != king ||
+                    BitBoardLayer.pawnFill(pieces, Color.WHITE) != white ||
+                    BitBoardLayer.pawnFill(pieces, Color.BLACK) != black) {
+                System.out.printf("WA:\n%s\n%s", new BitBoardLayer(pieces), new BitBoardLayer(occupied));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void test() {
+        testAttacks();
+        testFills();
+    }
+}
@@ -54,6 +54,19 @@ public interface Board {
      */
     boolean isThreatened(Piece piece);
 
+    /**
+     * (ignores enpassant)
+     * @return mask (see BitBoardLayer) of all squares attacked by pieces of given color,
+     *         squares of its own pieces included
+     */
+    default long attackedSquares(Color color) {
+        long result = 0;
+        for(Piece piece: getAllPieces())
+            if(piece.color == color)
+                result |= ArrayBoardImplementation.getAttacks(this, piece);
+        return result;
+    }
+
     /**
      * create new board with some changes made (pieces moved/added/removed)
      * @param work List of positions to be replaced by given piece
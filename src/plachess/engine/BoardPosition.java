@@ -12,6 +12,28 @@ public interface BoardPosition {
             boolean[] castling, Position enpassant,
             int halfMoveClock, int fullMoveClock);
 
+    /** constructor method for positions whose hash key was already updated incrementally (see Zobrist) */
+    BoardPosition create(
+            Board board, Color turnColor,
+            boolean[] castling, Position enpassant,
+            int halfMoveClock, int fullMoveClock,
+            long hashKey);
+
+    /**
+     * constructor method for positions whose hash key and material were already updated incrementally
+     * implementations not keeping material (see getMaterial) ignore it
+     */
+    default BoardPosition create(
+            Board board, Color turnColor,
+            boolean[] castling, Position enpassant,
+            int halfMoveClock, int fullMoveClock,
+            long hashKey, Material material) {
+        return create(board, turnColor, castling, enpassant, halfMoveClock, fullMoveClock, hashKey);
+    }
+
+    /** @return piece counts and kings if implementation keeps them, otherwise null */
+    default Material getMaterial() { return null; }
+
     /** @return reference to board */
     Board getBoard();
     Color getTurnColor();
@@ -25,6 +47,12 @@ public interface BoardPosition {
     int getHalfMoveClock();
     int getFullMoveClock();
 
+    /**
+     * clocks are not part of the key
+     * @return 64-bit Zobrist key of pieces, turn color, castling and enpassant file
+     */
+    long getHashKey();
+
     Piece getPiece(Position pos);
     default Piece getPiece(int x, int y) { return getPiece(Position.getNew(x, y)); }
     PieceType getPieceType(Position pos);
@@ -55,6 +83,24 @@ public interface BoardPosition {
     /** same as getNextPositions but updates Stats class for debugging purposes */
     List<BoardPosition> getNextPositions(Perft.Stats stats);
 
+    /**
+     * retracts last move of color not on turn, including uncaptures (see UnmoveGenerator)
+     * @return all BoardPositions from which a valid move leads to this BoardPosition
+     */
+    default List<BoardPosition> getPreviousPositions() { return new UnmoveGenerator(this).generate(); }
+
+    /**
+     * implementations should answer without creating next positions
+     * @return number of legal moves of color on turn (same as size of getNextPositions)
+     */
+    default int countLegalMoves() { return getNextPositions().size(); }
+
+    /**
+     * implementations should stop at the first legal move found
+     * @return whether color on turn has any legal move (same as getNextPositions not being empty)
+     */
+    default boolean hasLegalMove() { return !getNextPositions().isEmpty(); }
+
     /**
      * either side has exactly one king and they do not threaten each other
      * @return whether rules about kings are met
@@ -79,7 +125,7 @@ public interface BoardPosition {
      * will not check for fivefold repetition rule
      * @return whether the current position is draw
      */
-    default boolean isDraw() { return BoardPosition.isDraw(this, getNextPositions(), getTurnColor()); }
+    default boolean isDraw() { return classify().isDraw(); }
 
     /** @return whether the color is in check */
     boolean isCheck(Color color);
@@ -88,7 +134,31 @@ public interface BoardPosition {
      * can be slow, use wisely
      * @return whether the color currently on turn has won
      */
-    default boolean isCheckMate() { return BoardPosition.isCheckMate(this, getNextPositions(), getTurnColor()); }
+    default boolean isCheckMate() { return classify() == GameStatus.CHECKMATE; }
+
+    /**
+     * implementations should compute the status only once per position
+     * @return status of the position (see classify(BoardPosition))
+     */
+    default GameStatus classify() { return BoardPosition.classify(this); }
+
+    /**
+     * checkmate takes precedence over draws, whether color on turn has a legal move is asked only when needed
+     * will not check for fivefold repetition rule
+     * @return status of the provided position
+     */
+    static GameStatus classify(BoardPosition curr) {
+        boolean check = curr.isCheck(curr.getTurnColor());
+        if(check && !curr.hasLegalMove())
+            return GameStatus.CHECKMATE;
+        if(curr.getHalfMoveClock() >= Rules.DRAW_HALFMOVES_NOCLAIM)
+            return GameStatus.DRAW_75;
+        if(curr.isDeadPosition())
+            return GameStatus.DEAD;
+        if(!check && !curr.hasLegalMove())
+            return GameStatus.STALEMATE;
+        return GameStatus.IN_PLAY;
+    }
 
     /**
      * will check for not being in check and not having legal move, dead positions, seventy-five-move rule
@@ -96,10 +166,15 @@ public interface BoardPosition {
      * @return whether the provided position is draw provided that next is list of all possible moves from it
      */
     static boolean isDraw(BoardPosition curr, List<BoardPosition> next, Color color) {
+        return isDraw(curr, !allMovesCheck(next, color), color);
+    }
+
+    /** same as isDraw but only whether curr has any legal move has to be known */
+    static boolean isDraw(BoardPosition curr, boolean hasLegalMove, Color color) {
         return curr.getHalfMoveClock() > Rules.DRAW_HALFMOVES_NOCLAIM ||
                 curr.isDeadPosition() ||
-                (curr.getHalfMoveClock() == Rules.DRAW_HALFMOVES_NOCLAIM && !isCheckMate(curr, next, color)) ||
-                (!curr.isCheck(color) && allMovesCheck(next, color));
+                (curr.getHalfMoveClock() == Rules.DRAW_HALFMOVES_NOCLAIM && !isCheckMate(curr, hasLegalMove, color)) ||
+                (!curr.isCheck(color) && !hasLegalMove);
     }
 
     /**
@@ -108,7 +183,12 @@ public interface BoardPosition {
      * @return whether the color has been checkmated provided that next is list of all possible moves from it
      */
     static boolean isCheckMate(BoardPosition curr, List<BoardPosition> next, Color color) {
-        return curr.isCheck(color) && allMovesCheck(next, color);
+        return isCheckMate(curr, !allMovesCheck(next, color), color);
+    }
+
+    /** same as isCheckMate but only whether curr has any legal move has to be known */
+    static boolean isCheckMate(BoardPosition curr, boolean hasLegalMove, Color color) {
+        return curr.isCheck(color) && !hasLegalMove;
     }
 
     /**
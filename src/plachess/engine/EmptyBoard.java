@@ -41,6 +41,11 @@ public class EmptyBoard implements Board {
         return false;
     }
 
+    @Override
+    public long attackedSquares(Color color) {
+        return 0;
+    }
+
     @Override
     public Board set(List<Pair<Position, Piece>> work) {
         return this;
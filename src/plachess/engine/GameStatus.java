@@ -0,0 +1,18 @@
+package plachess.engine;
+
+/** result of BoardPosition.classify, fivefold repetition is not considered */
+public enum GameStatus {
+    IN_PLAY,
+    /** color on turn is in check and has no legal move */
+    CHECKMATE,
+    /** color on turn is not in check and has no legal move */
+    STALEMATE,
+    /** no sequence of moves can lead to checkmate (see BoardPosition.isDeadPosition) */
+    DEAD,
+    /** seventy-five-move rule */
+    DRAW_75;
+
+    public boolean isDraw() {
+        return this == STALEMATE || this == DEAD || this == DRAW_75;
+    }
+}
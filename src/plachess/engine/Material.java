@@ -0,0 +1,63 @@
+package plachess.engine;
+
+import java.util.List;
+
+/**
+ * piece counts of both colors and their kings, immutable
+ * positions carry it to their children (see Move.apply), so the board does not have to be scanned again
+ */
+public class Material {
+    private static final int TYPES = PieceType.values().length;
+
+    /** count of pieces indexed by color.ordinal() * TYPES + type.ordinal() */
+    private final int[] counts;
+    /** last found king of each color (indexed by color.ordinal()), null if there is none */
+    private final Piece[] kings;
+
+    private Material(int[] counts, Piece[] kings) {
+        this.counts = counts;
+        this.kings = kings;
+    }
+
+    public static Material fromBoard(Board board) {
+        Material material = new Material(new int[Color.values().length * TYPES], new Piece[Color.values().length]);
+        for(Piece piece: board.getAllPieces())
+            material.add(piece);
+        return material;
+    }
+
+    public int count(Color color, PieceType type) {
+        return counts[color.ordinal() * TYPES + type.ordinal()];
+    }
+
+    public Piece getKing(Color color) {
+        return kings[color.ordinal()];
+    }
+
+    /** @return material after applying work (same as given to Board.set) on oldBoard */
+    public Material update(Board oldBoard, List<Pair<Position, Piece>> work) {
+        Material material = new Material(counts.clone(), kings.clone());
+        for(Pair<Position, Piece> change: work) {
+            Piece old = oldBoard.getPiece(change.frst);
+            if(!Piece.isEmpty(old)) {
+                material.counts[old.color.ordinal() * TYPES + old.type.ordinal()]--;
+                Piece king = material.getKing(old.color);
+                if(old.type == PieceType.KING && king != null && change.frst.equals(king.pos))
+                    material.kings[old.color.ordinal()] = null;
+            }
+        }
+        for(Pair<Position, Piece> change: work) {
+            Piece piece = change.scnd;
+            if(Piece.isEmpty(piece))
+                continue;
+            material.add(piece.type == PieceType.KING ? piece.setPos(change.frst) : piece);
+        }
+        return material;
+    }
+
+    private void add(Piece piece) {
+        counts[piece.color.ordinal() * TYPES + piece.type.ordinal()]++;
+        if(piece.type == PieceType.KING)
+            kings[piece.color.ordinal()] = piece;
+    }
+}
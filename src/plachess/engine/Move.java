@@ -2,6 +2,7 @@ package plachess.engine;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -28,25 +29,29 @@ public interface Move {
 
     static boolean[] updateCastling(boolean[] castling, Piece moved) {
         boolean[] result = castling.clone();
+        loseCastlingByPiece(result, moved);
+        return result;
+    }
 
+    /** in-place version of updateCastling, moved can be piece leaving or being captured on its square */
+    static void loseCastlingByPiece(boolean[] castling, Piece moved) {
         if(Piece.isEmpty(moved))
-            return result;
+            return;
         else if(moved.type == PieceType.KING) {
-            loseCastling(result, moved.color, null);
+            loseCastling(castling, moved.color, null);
         } else if(moved.type == PieceType.ROOK) {
             if(moved.color == Color.WHITE) {
                 if (moved.pos.equals(Rules.BORDER_KING, Rules.ROW_WHITE))
-                    loseCastling(result, moved.color, PieceType.KING);
+                    loseCastling(castling, moved.color, PieceType.KING);
                 else if (moved.pos.equals(Rules.BORDER_QUEEN, Rules.ROW_WHITE))
-                    loseCastling(result, moved.color, PieceType.QUEEN);
+                    loseCastling(castling, moved.color, PieceType.QUEEN);
             } else { // if(moved.color == Color.BLACK)
                 if (moved.pos.equals(Rules.BORDER_KING, Rules.ROW_BLACK))
-                    loseCastling(result, moved.color, PieceType.KING);
+                    loseCastling(castling, moved.color, PieceType.KING);
                 else if (moved.pos.equals(Rules.BORDER_QUEEN, Rules.ROW_BLACK))
-                    loseCastling(result, moved.color, PieceType.QUEEN);
+                    loseCastling(castling, moved.color, PieceType.QUEEN);
             }
         }
-        return result;
     }
 
     static Position updateEnpassant(Piece piece, Position posTo) {
@@ -58,6 +63,19 @@ public interface Move {
         return null;
     }
 
+    /** @return hash key of bp with turn switched and castling/enpassant replaced by new values (pieces untouched) */
+    static long updateHashState(BoardPosition bp, boolean[] newCastling, Position newEnpassant) {
+        return bp.getHashKey() ^ Zobrist.SIDE ^
+                Zobrist.castling(bp.getCastling()) ^ Zobrist.castling(newCastling) ^
+                Zobrist.enpassant(bp.getEnpassant()) ^ Zobrist.enpassant(newEnpassant);
+    }
+
+    /** @return material of bp after applying work on its board, null if bp does not keep material */
+    static Material updateMaterial(BoardPosition bp, List<Pair<Position, Piece>> work) {
+        Material material = bp.getMaterial();
+        return material == null ? null : material.update(bp.getBoard(), work);
+    }
+
     static boolean isPromoted(Piece piece, Position posTo) {
         return piece.type == PieceType.PAWN &&
                 posTo.y == Rules.getColorHomeRow(piece.color.opposite());
@@ -96,16 +114,20 @@ public interface Move {
                                     0 : bp.getHalfMoveClock() + clockChange;
             int newFullMoveClock = bp.getFullMoveClock() + clockChange;
 
-            Board newBoard = oldBoard.set(Arrays.asList(
+            List<Pair<Position, Piece>> work = Arrays.asList(
                     new Pair<>(posFrom, Piece.empty()),
                     new Pair<>(posTo, pieceFrom)
-            ));
+            );
+            Board newBoard = oldBoard.set(work);
+            long newHashKey = Move.updateHashState(bp, newCastling, newEnpassant) ^
+                    Zobrist.piece(pieceFrom, posFrom) ^ Zobrist.piece(pieceTo, posTo) ^ Zobrist.piece(pieceFrom, posTo);
 
             return new Pair<>(
                 bp.create(
                     newBoard, newTurnColor,
                     newCastling, newEnpassant,
-                    newHalfMoveClock, newFullMoveClock),
+                    newHalfMoveClock, newFullMoveClock,
+                    newHashKey, Move.updateMaterial(bp, work)),
                 capturing);
         }
 
@@ -162,18 +184,24 @@ public interface Move {
             Position posRook = Position.getNew(this.side == PieceType.KING ? Rules.BORDER_KING : Rules.BORDER_QUEEN, homeRow);
             Position posKing = Position.getNew(Rules.COL_KING, homeRow);
             int dirKing = (int)Math.signum(posRook.x - posKing.x);
-            Board newBoard = oldBoard.set(Arrays.asList(
+            Piece pieceKing = oldBoard.getPiece(posKing), pieceRook = oldBoard.getPiece(posRook);
+            List<Pair<Position, Piece>> work = Arrays.asList(
                         new Pair<>(posKing, Piece.empty()),
                         new Pair<>(posRook, Piece.empty()),
-                        new Pair<>(posKing.add(dirKing*2, 0), oldBoard.getPiece(posKing)),
-                        new Pair<>(posKing.add(dirKing, 0), oldBoard.getPiece(posRook))
-            ));
+                        new Pair<>(posKing.add(dirKing*2, 0), pieceKing),
+                        new Pair<>(posKing.add(dirKing, 0), pieceRook)
+            );
+            Board newBoard = oldBoard.set(work);
+            long newHashKey = Move.updateHashState(bp, newCastling, null) ^
+                    Zobrist.piece(pieceKing, posKing) ^ Zobrist.piece(pieceKing, posKing.add(dirKing*2, 0)) ^
+                    Zobrist.piece(pieceRook, posRook) ^ Zobrist.piece(pieceRook, posKing.add(dirKing, 0));
 
             return new Pair<>(
                     bp.create(
                             newBoard, newTurnColor,
                             newCastling, null,
-                            newHalfMoveClock, newFullMoveClock),
+                            newHalfMoveClock, newFullMoveClock,
+                            newHashKey, Move.updateMaterial(bp, work)),
                     false);
         }
 
@@ -236,16 +264,22 @@ public interface Move {
             int newHalfMoveClock = 0;
             int newFullMoveClock = bp.getFullMoveClock() + clockChange;
 
-            Board newBoard = oldBoard.set(Arrays.asList(
+            Piece piecePromoted = new Piece(null, pieceFrom.color, promotion);
+            List<Pair<Position, Piece>> work = Arrays.asList(
                     new Pair<>(posFrom, Piece.empty()),
-                    new Pair<>(posTo, new Piece(null, pieceFrom.color, promotion))
-            ));
+                    new Pair<>(posTo, piecePromoted)
+            );
+            Board newBoard = oldBoard.set(work);
+            boolean[] newCastling = Move.updateCastling(bp.getCastling(), pieceTo);
+            long newHashKey = Move.updateHashState(bp, newCastling, null) ^
+                    Zobrist.piece(pieceFrom, posFrom) ^ Zobrist.piece(pieceTo, posTo) ^ Zobrist.piece(piecePromoted, posTo);
 
             return new Pair<>(
                     bp.create(
                             newBoard, newTurnColor,
-                            bp.getCastling(), null,
-                            newHalfMoveClock, newFullMoveClock),
+                            newCastling, null,
+                            newHalfMoveClock, newFullMoveClock,
+                            newHashKey, Move.updateMaterial(bp, work)),
                     capturing);
         }
 
@@ -313,17 +347,22 @@ public interface Move {
             int newHalfMoveClock = 0;
             int newFullMoveClock = bp.getFullMoveClock() + clockChange;
 
-            Board newBoard = oldBoard.set(Arrays.asList(
+            List<Pair<Position, Piece>> work = Arrays.asList(
                     new Pair<>(posFrom, Piece.empty()),
                     new Pair<>(posAttacked, Piece.empty()),
                     new Pair<>(posTo, pieceFrom)
-            ));
+            );
+            Board newBoard = oldBoard.set(work);
+            long newHashKey = Move.updateHashState(bp, bp.getCastling(), null) ^
+                    Zobrist.piece(pieceFrom, posFrom) ^ Zobrist.piece(pieceAttacked, posAttacked) ^
+                    Zobrist.piece(pieceFrom, posTo);
 
             return new Pair<>(
                     bp.create(
                             newBoard, newTurnColor,
                             bp.getCastling(), null,
-                            newHalfMoveClock, newFullMoveClock),
+                            newHalfMoveClock, newFullMoveClock,
+                            newHashKey, Move.updateMaterial(bp, work)),
                     true);
         }
 
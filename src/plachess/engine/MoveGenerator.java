@@ -0,0 +1,334 @@
+package plachess.engine;
+
+/**
+ * legality information of position on PrimitiveBitBoard computed from attack masks:
+ * squares attacked by opponent, pieces checking king of color on turn, check mask and absolutely pinned pieces
+ * strictly legal moves are generated (or only counted) from these masks without making any move
+ * kings of position have to be valid (see BoardPosition.isKingValid)
+ */
+public class MoveGenerator {
+    /** squares strictly between two squares on common line (rank, file or diagonal), 0 if there is none */
+    static final long[][] BETWEEN = new long[BitBoardLayer.BA][BitBoardLayer.BA];
+    /** whole line going through two squares (including them), 0 if they do not lie on one */
+    static final long[][] LINE = new long[BitBoardLayer.BA][BitBoardLayer.BA];
+
+    static {
+        for(int a = 0; a < BitBoardLayer.BA; ++a) {
+            for(int b = 0; b < BitBoardLayer.BA; ++b) {
+                if(a == b)
+                    continue;
+                long ab = BitBoardLayer.bit(a) | BitBoardLayer.bit(b);
+                if((BitBoardMagic.rookAttacks(a, 0) & BitBoardLayer.bit(b)) != 0) {
+                    BETWEEN[a][b] = BitBoardMagic.rookAttacks(a, ab) & BitBoardMagic.rookAttacks(b, ab);
+                    LINE[a][b] = (BitBoardMagic.rookAttacks(a, 0) & BitBoardMagic.rookAttacks(b, 0)) | ab;
+                } else if((BitBoardMagic.bishopAttacks(a, 0) & BitBoardLayer.bit(b)) != 0) {
+                    BETWEEN[a][b] = BitBoardMagic.bishopAttacks(a, ab) & BitBoardMagic.bishopAttacks(b, ab);
+                    LINE[a][b] = (BitBoardMagic.bishopAttacks(a, 0) & BitBoardMagic.bishopAttacks(b, 0)) | ab;
+                }
+            }
+        }
+    }
+
+    private static final long FULL = -1L;
+
+    private final BoardPosition bp;
+    private final PrimitiveBitBoard board;
+    private final Color us, them;
+    private final int king;
+    /** squares attacked by opponent, with our king removed from occupancy (so it cannot hide behind itself) */
+    private final long enemyAttacks;
+    /** opponent pieces giving check */
+    private final long checkers;
+    /** squares non-king pieces have to move to (to capture checker or block check), all squares if not in check */
+    private final long checkMask;
+    /** own pieces pinned to king */
+    private final long pinned;
+
+    /** @param bp position whose board is PrimitiveBitBoard */
+    public MoveGenerator(BoardPosition bp) {
+        this.bp = bp;
+        this.board = (PrimitiveBitBoard)bp.getBoard();
+        this.us = bp.getTurnColor();
+        this.them = us.opposite();
+        this.king = BitBoardLayer.firstIndex(board.getLayer(us, PieceType.KING));
+
+        long occupied = board.getOccupied();
+        long occupiedNoKing = occupied & ~BitBoardLayer.bit(king);
+        enemyAttacks = board.attackedSquares(them, occupiedNoKing);
+
+        checkers = board.getAttackers(king, them);
+        if(checkers == 0)
+            checkMask = FULL;
+        else if(Long.bitCount(checkers) == 1)
+            checkMask = checkers | BETWEEN[king][BitBoardLayer.firstIndex(checkers)];
+        else
+            checkMask = 0;
+
+        long enemy = board.getColorLayer(them);
+        long queens = board.getLayer(them, PieceType.QUEEN);
+        long snipers = (BitBoardMagic.rookAttacks(king, enemy) & (board.getLayer(them, PieceType.ROOK) | queens)) |
+                (BitBoardMagic.bishopAttacks(king, enemy) & (board.getLayer(them, PieceType.BISHOP) | queens));
+        long pins = 0;
+        for(; snipers != 0; snipers = BitBoardLayer.popFirst(snipers)) {
+            long blockers = BETWEEN[king][BitBoardLayer.firstIndex(snipers)] & occupied;
+            if(Long.bitCount(blockers) == 1)
+                pins |= blockers & board.getColorLayer(us);
+        }
+        pinned = pins;
+    }
+
+    public long getCheckers() { return checkers; }
+    public long getCheckMask() { return checkMask; }
+    public long getPinned() { return pinned; }
+    public long getEnemyAttacks() { return enemyAttacks; }
+
+    /** @return squares to which piece standing on index can move without exposing the king (all if not pinned) */
+    public long getPinMask(int index) {
+        return BitBoardLayer.isCell(pinned, index) ? LINE[king][index] : FULL;
+    }
+
+    /** @return destinations of legal king moves (castling excluded) */
+    public long getKingTargets() {
+        return BitBoardImplementation.getAttackPattern(PieceType.KING, king) &
+                ~board.getColorLayer(us) & ~board.getLayer(them, PieceType.KING) & ~enemyAttacks;
+    }
+
+    /** @return destinations of legal simple (and promotion) moves of own non-king piece of given layer on index */
+    public long getTargets(int li, int index) {
+        return board.getMovesLayer(li, index) & checkMask & getPinMask(index) & ~board.getLayer(them, PieceType.KING);
+    }
+
+    /** @return whether castling to given side is legal */
+    public boolean canCastle(PieceType side) {
+        if(checkers != 0 || !bp.canCastle(us, side))
+            return false;
+        int row = king / BitBoardLayer.BS;
+        long empty, safe;
+        if(side == PieceType.KING) {
+            empty = safe = BitBoardLayer.bit(5, row) | BitBoardLayer.bit(6, row);
+        } else {
+            safe = BitBoardLayer.bit(2, row) | BitBoardLayer.bit(3, row);
+            empty = safe | BitBoardLayer.bit(1, row);
+        }
+        return (board.getOccupied() & empty) == 0 && (enemyAttacks & safe) == 0;
+    }
+
+    /**
+     * en passant is tested by removing both pawns from occupancy and looking for any attacker of king,
+     * this covers also the case of capturing and captured pawn both shielding king on its rank
+     * @return own pawns which can legally capture en passant
+     */
+    public long getEnpassantAttackers() {
+        Position enpassant = bp.getEnpassant();
+        if(enpassant == null)
+            return 0;
+        int to = BitBoardLayer.posToIndex(enpassant.x, enpassant.y);
+        Position victimPos = Rules.getEnpassantInvolvedPositions(enpassant).get(0);
+        int victim = BitBoardLayer.posToIndex(victimPos.x, victimPos.y);
+        long theirPawns = board.getLayer(them, PieceType.PAWN);
+        if(!BitBoardLayer.isCell(theirPawns, victim) || board.isOccupied(enpassant.x, enpassant.y))
+            return 0;
+
+        long result = 0;
+        long candidates = BitBoardImplementation.getAttackPatternPawn(them, to) & board.getLayer(us, PieceType.PAWN);
+        long queens = board.getLayer(them, PieceType.QUEEN);
+        for(; candidates != 0; candidates = BitBoardLayer.popFirst(candidates)) {
+            int from = BitBoardLayer.firstIndex(candidates);
+            long occupied = (board.getOccupied() & ~BitBoardLayer.bit(from) & ~BitBoardLayer.bit(victim)) |
+                    BitBoardLayer.bit(to);
+            long attackers =
+                    (BitBoardMagic.rookAttacks(king, occupied) & (board.getLayer(them, PieceType.ROOK) | queens)) |
+                    (BitBoardMagic.bishopAttacks(king, occupied) & (board.getLayer(them, PieceType.BISHOP) | queens)) |
+                    (BitBoardImplementation.getAttackPattern(PieceType.KNIGHT, king) & board.getLayer(them, PieceType.KNIGHT)) |
+                    (BitBoardImplementation.getAttackPatternPawn(us, king) & theirPawns & ~BitBoardLayer.bit(victim));
+            if(attackers == 0)
+                result |= BitBoardLayer.bit(from);
+        }
+        return result;
+    }
+
+    /** @return number of legal moves of color on turn, each promotion piece counts as separate move */
+    public int countLegalMoves() {
+        int count = Long.bitCount(getKingTargets());
+        if(checkMask == 0) // double check, only king can move
+            return count;
+
+        long lastRow = 0xFFL << (Rules.getColorHomeRow(them) * BitBoardLayer.BS);
+        for(PieceType type: BitBoardImplementation.supportedPieceTypes) {
+            if(type == PieceType.KING)
+                continue;
+            int li = PrimitiveBitBoard.layerIndex(us, type);
+            for(long b = board.getLayer(us, type); b != 0; b = BitBoardLayer.popFirst(b)) {
+                long targets = getTargets(li, BitBoardLayer.firstIndex(b));
+                if(type == PieceType.PAWN)
+                    count += Long.bitCount(targets & lastRow) * (Rules.PAWN_PROMOTION_OPTIONS.size() - 1);
+                count += Long.bitCount(targets);
+            }
+        }
+
+        count += Long.bitCount(getEnpassantAttackers());
+        if(canCastle(PieceType.KING))
+            count++;
+        if(canCastle(PieceType.QUEEN))
+            count++;
+        return count;
+    }
+
+    /** same as countLegalMoves() != 0 but stops at the first legal move */
+    public boolean hasLegalMove() {
+        if(getKingTargets() != 0)
+            return true;
+        if(checkMask == 0) // double check, only king can move
+            return false;
+
+        for(PieceType type: BitBoardImplementation.supportedPieceTypes) {
+            if(type == PieceType.KING)
+                continue;
+            int li = PrimitiveBitBoard.layerIndex(us, type);
+            for(long b = board.getLayer(us, type); b != 0; b = BitBoardLayer.popFirst(b))
+                if(getTargets(li, BitBoardLayer.firstIndex(b)) != 0)
+                    return true;
+        }
+        // castling is not needed, it is possible only if king can step to the square next to it
+        return getEnpassantAttackers() != 0;
+    }
+
+    /** fills list with all legal moves of color on turn (packed, see PackedMove) */
+    public void generateMoves(MoveList list) {
+        list.clear();
+        for(long targets = getKingTargets(); targets != 0; targets = BitBoardLayer.popFirst(targets))
+            list.add(PackedMove.make(king, BitBoardLayer.firstIndex(targets), PackedMove.NORMAL));
+        if(checkMask == 0) // double check, only king can move
+            return;
+
+        long lastRow = 0xFFL << (Rules.getColorHomeRow(them) * BitBoardLayer.BS);
+        for(PieceType type: BitBoardImplementation.supportedPieceTypes) {
+            if(type == PieceType.KING)
+                continue;
+            int li = PrimitiveBitBoard.layerIndex(us, type);
+            for(long b = board.getLayer(us, type); b != 0; b = BitBoardLayer.popFirst(b)) {
+                int from = BitBoardLayer.firstIndex(b);
+                for(long targets = getTargets(li, from); targets != 0; targets = BitBoardLayer.popFirst(targets)) {
+                    int to = BitBoardLayer.firstIndex(targets);
+                    if(type == PieceType.PAWN && BitBoardLayer.isCell(lastRow, to)) {
+                        for(PieceType promotion: Rules.PAWN_PROMOTION_OPTIONS)
+                            list.add(PackedMove.makePromotion(from, to, promotion));
+                    } else
+                        list.add(PackedMove.make(from, to, PackedMove.NORMAL));
+                }
+            }
+        }
+
+        Position enpassant = bp.getEnpassant();
+        for(long b = getEnpassantAttackers(); b != 0; b = BitBoardLayer.popFirst(b))
+            list.add(PackedMove.make(BitBoardLayer.firstIndex(b),
+                    BitBoardLayer.posToIndex(enpassant.x, enpassant.y), PackedMove.ENPASSANT));
+        int row = king / BitBoardLayer.BS;
+        if(canCastle(PieceType.KING))
+            list.add(PackedMove.make(king, BitBoardLayer.posToIndex(Rules.COL_KING + 2, row), PackedMove.CASTLING));
+        if(canCastle(PieceType.QUEEN))
+            list.add(PackedMove.make(king, BitBoardLayer.posToIndex(Rules.COL_KING - 2, row), PackedMove.CASTLING));
+    }
+
+    /** @return whether our piece of given type standing on index attacks enemy king given occupancy */
+    private boolean givesCheck(PieceType type, int index, long occupied) {
+        return (PrimitiveBitBoard.getAttacks(type, us, index, occupied) & board.getLayer(them, PieceType.KING)) != 0;
+    }
+
+    /** @return whether given rooks or bishops (queens included in both) attack enemy king on given occupancy */
+    private static boolean isSliderCheck(int enemyKing, long occupied, long rooks, long bishops) {
+        return (BitBoardMagic.rookAttacks(enemyKing, occupied) & rooks) != 0 ||
+                (BitBoardMagic.bishopAttacks(enemyKing, occupied) & bishops) != 0;
+    }
+
+    /** @return own pieces which give discovered check by leaving line between our slider and enemy king */
+    private long getDiscoverers(int enemyKing) {
+        long occupied = board.getOccupied(), ours = board.getColorLayer(us);
+        long queens = board.getLayer(us, PieceType.QUEEN);
+        long snipers = (BitBoardMagic.rookAttacks(enemyKing, 0) & (board.getLayer(us, PieceType.ROOK) | queens)) |
+                (BitBoardMagic.bishopAttacks(enemyKing, 0) & (board.getLayer(us, PieceType.BISHOP) | queens));
+        long discoverers = 0;
+        for(; snipers != 0; snipers = BitBoardLayer.popFirst(snipers)) {
+            long blockers = BETWEEN[enemyKing][BitBoardLayer.firstIndex(snipers)] & occupied;
+            if(Long.bitCount(blockers) == 1)
+                discoverers |= blockers & ours;
+        }
+        return discoverers;
+    }
+
+    /**
+     * fills list with legal moves of color on turn which give check (moves that can checkmate)
+     * direct checks come from squares attacking enemy king, discovered checks from own pieces leaving line
+     * between own slider and enemy king, promotions, en passant and castling are tested on resulting occupancy
+     */
+    public void generateChecks(MoveList list) {
+        list.clear();
+        int enemyKing = BitBoardLayer.firstIndex(board.getLayer(them, PieceType.KING));
+        long occupied = board.getOccupied();
+        long discoverers = getDiscoverers(enemyKing);
+
+        if(BitBoardLayer.isCell(discoverers, king))
+            for(long targets = getKingTargets() & ~LINE[enemyKing][king]; targets != 0;
+                    targets = BitBoardLayer.popFirst(targets))
+                list.add(PackedMove.make(king, BitBoardLayer.firstIndex(targets), PackedMove.NORMAL));
+        if(checkMask == 0) // double check, only king can move
+            return;
+
+        long lastRow = 0xFFL << (Rules.getColorHomeRow(them) * BitBoardLayer.BS);
+        for(PieceType type: BitBoardImplementation.supportedPieceTypes) {
+            if(type == PieceType.KING)
+                continue;
+            int li = PrimitiveBitBoard.layerIndex(us, type);
+            // our piece of this type attacks enemy king exactly from squares attacked from there by the same type
+            long checkSquares = PrimitiveBitBoard.getAttacks(type, them, enemyKing, occupied);
+            for(long b = board.getLayer(us, type); b != 0; b = BitBoardLayer.popFirst(b)) {
+                int from = BitBoardLayer.firstIndex(b);
+                long targets = getTargets(li, from);
+                long discovered = BitBoardLayer.isCell(discoverers, from) ? ~LINE[enemyKing][from] : 0;
+                if(type == PieceType.PAWN) {
+                    for(long t = targets & lastRow; t != 0; t = BitBoardLayer.popFirst(t)) {
+                        int to = BitBoardLayer.firstIndex(t);
+                        long after = (occupied & ~BitBoardLayer.bit(from)) | BitBoardLayer.bit(to);
+                        for(PieceType promotion: Rules.PAWN_PROMOTION_OPTIONS)
+                            if(BitBoardLayer.isCell(discovered, to) || givesCheck(promotion, to, after))
+                                list.add(PackedMove.makePromotion(from, to, promotion));
+                    }
+                    targets &= ~lastRow;
+                }
+                for(targets &= checkSquares | discovered; targets != 0; targets = BitBoardLayer.popFirst(targets))
+                    list.add(PackedMove.make(from, BitBoardLayer.firstIndex(targets), PackedMove.NORMAL));
+            }
+        }
+
+        long queens = board.getLayer(us, PieceType.QUEEN);
+        long rooks = board.getLayer(us, PieceType.ROOK) | queens, bishops = board.getLayer(us, PieceType.BISHOP) | queens;
+        Position enpassant = bp.getEnpassant();
+        long attackers = getEnpassantAttackers();
+        if(attackers != 0) {
+            int to = BitBoardLayer.posToIndex(enpassant.x, enpassant.y);
+            Position victimPos = Rules.getEnpassantInvolvedPositions(enpassant).get(0);
+            int victim = BitBoardLayer.posToIndex(victimPos.x, victimPos.y);
+            for(; attackers != 0; attackers = BitBoardLayer.popFirst(attackers)) {
+                int from = BitBoardLayer.firstIndex(attackers);
+                long after = (occupied & ~BitBoardLayer.bit(from) & ~BitBoardLayer.bit(victim)) | BitBoardLayer.bit(to);
+                if(isSliderCheck(enemyKing, after, rooks, bishops) || givesCheck(PieceType.PAWN, to, after))
+                    list.add(PackedMove.make(from, to, PackedMove.ENPASSANT));
+            }
+        }
+
+        // castling gives check by the rook or discovers check by king leaving its square
+        int row = king / BitBoardLayer.BS;
+        for(PieceType side: new PieceType[]{PieceType.KING, PieceType.QUEEN}) {
+            if(!canCastle(side))
+                continue;
+            int dirKing = side == PieceType.KING ? 1 : -1;
+            int rookFrom = BitBoardLayer.posToIndex(dirKing > 0 ? Rules.BORDER_KING : Rules.BORDER_QUEEN, row);
+            int kingTo = king + 2 * dirKing, rookTo = king + dirKing;
+            long after = (occupied & ~BitBoardLayer.bit(king) & ~BitBoardLayer.bit(rookFrom)) |
+                    BitBoardLayer.bit(kingTo) | BitBoardLayer.bit(rookTo);
+            long rooksAfter = (rooks & ~BitBoardLayer.bit(rookFrom)) | BitBoardLayer.bit(rookTo);
+            if(isSliderCheck(enemyKing, after, rooksAfter, bishops))
+                list.add(PackedMove.make(king, kingTo, PackedMove.CASTLING));
+        }
+    }
+}
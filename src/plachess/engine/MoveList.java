@@ -0,0 +1,69 @@
+package plachess.engine;
+
+import java.util.Arrays;
+
+/** growable list of packed moves (see PackedMove) backed by int array, meant to be reused */
+public class MoveList {
+    /** more than maximal number of legal moves in any position */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private int[] moves;
+    private int size = 0;
+
+    public MoveList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MoveList(int capacity) {
+        moves = new int[capacity];
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public int get(int i) { return moves[i]; }
+    public void set(int i, int move) { moves[i] = move; }
+    public void clear() { size = 0; }
+
+    public void add(int move) {
+        if(size == moves.length)
+            moves = Arrays.copyOf(moves, size * 2);
+        moves[size++] = move;
+    }
+
+    /** keeps only first newSize moves */
+    public void truncate(int newSize) { size = newSize; }
+
+    /** @return index of given move or -1 */
+    public int indexOf(int move) {
+        for(int i = 0; i < size; ++i)
+            if(moves[i] == move)
+                return i;
+        return -1;
+    }
+
+    /** moves given move (if present) to the front, so it is tried first */
+    public void moveToFront(int move) {
+        moveTo(move, 0);
+    }
+
+    /** moves given move (if present behind index) to index by swapping it with the move there */
+    public void moveTo(int move, int index) {
+        int i = indexOf(move);
+        if(i > index)
+            swap(i, index);
+    }
+
+    public void swap(int i, int j) {
+        int move = moves[i];
+        moves[i] = moves[j];
+        moves[j] = move;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("[");
+        for(int i = 0; i < size; ++i)
+            result.append(i == 0 ? "" : ", ").append(PackedMove.toString(moves[i]));
+        return result.append("]").toString();
+    }
+}
@@ -0,0 +1,56 @@
+package plachess.engine;
+
+/** testing of castling rights after moves, positions compared by hash key (which includes castling rights) */
+public class MoveTest {
+    /** position, position after promotion capturing rook on its initial square, castling rights lost by it */
+    private static final String[][] PROMOTIONS = {
+            {"r3k2r/6P1/8/8/8/8/8/4K3 w kq - 0 1", "r3k2Q/8/8/8/8/8/8/4K3 b q - 0 1", "r3k2Q/8/8/8/8/8/8/4K3 b kq - 0 1"},
+            {"r3k2r/1P6/8/8/8/8/8/4K3 w kq - 0 1", "Q3k2r/8/8/8/8/8/8/4K3 b k - 0 1", "Q3k2r/8/8/8/8/8/8/4K3 b kq - 0 1"},
+            {"4k3/8/8/8/8/8/6p1/R3K2R b KQ - 0 1", "4k3/8/8/8/8/8/8/R3K2q w Q - 0 2", "4k3/8/8/8/8/8/8/R3K2q w KQ - 0 2"},
+            {"4k3/8/8/8/8/8/1p6/R3K2R b KQ - 0 1", "4k3/8/8/8/8/8/8/q3K2R w K - 0 2", "4k3/8/8/8/8/8/8/q3K2R w KQ - 0 2"}};
+
+    private static boolean contains(BoardPosition bp, long hashKey) {
+        for(BoardPosition next: bp.getNextPositions())
+            if(next.getHashKey() == hashKey)
+                return true;
+        return false;
+    }
+
+    private static boolean contains(MutableBoardPosition position, long hashKey) {
+        MoveList moves = position.generateMoves();
+        for(int i = 0; i < moves.size(); ++i) {
+            position.makeMove(moves.get(i));
+            boolean found = position.getHashKey() == hashKey;
+            position.unmakeMove();
+            if(found)
+                return true;
+        }
+        return false;
+    }
+
+    /** promotion capturing rook on its initial square loses castling right of the rook's side */
+    public static boolean testPromotionCapturingRook() {
+        for(String[] promotion: PROMOTIONS) {
+            long wanted = MutableBoardPosition.fromXFEN(promotion[1]).getHashKey();
+            long unwanted = MutableBoardPosition.fromXFEN(promotion[2]).getHashKey();
+            for(Board emptyBoard: new Board[]{new Array1DBoard(), new PrimitiveBitBoard()}) {
+                BoardPosition bp = BoardPosition.fromXFEN(promotion[0], emptyBoard);
+                if(!contains(bp, wanted) || contains(bp, unwanted)) {
+                    System.out.printf("WA: %s on %s does not reach %s\n", promotion[0],
+                            emptyBoard.getClass().getSimpleName(), promotion[1]);
+                    return false;
+                }
+            }
+            MutableBoardPosition position = MutableBoardPosition.fromXFEN(promotion[0]);
+            if(!contains(position, wanted) || contains(position, unwanted)) {
+                System.out.printf("WA: %s in MutableBoardPosition does not reach %s\n", promotion[0], promotion[1]);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void test() {
+        testPromotionCapturingRook();
+    }
+}
@@ -0,0 +1,439 @@
+package plachess.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * BoardPosition which is changed in place by makeMove and restored by unmakeMove
+ * meant for depth-first search where one instance is shared by whole search tree
+ * NOT thread safe - use one instance (see copy) per thread
+ * getBoard returns live board, which changes with every makeMove/unmakeMove
+ */
+public class MutableBoardPosition implements BoardPosition {
+    /** everything needed to take back one move, objects are reused between plies */
+    private static class Undo {
+        /** packed move (see PackedMove) */
+        int move;
+        Piece captured;
+        final boolean[] castling = new boolean[4];
+        Position enpassant;
+        int halfMoveClock, fullMoveClock;
+        long hashKey;
+        /** size of square change log before the move */
+        int changesMark;
+    }
+
+    private final PrimitiveBitBoard board;
+    private Color turnColor;
+    private final boolean[] castling;
+    private Position enpassant;
+    private int halfMoveClock, fullMoveClock;
+    /** Zobrist key, updated incrementally by every change */
+    private long hashKey;
+    /** square index of each color's king, -1 if there is none */
+    private final int[] kingIndex = {-1, -1};
+
+    private Undo[] history = new Undo[0];
+    private int ply = 0;
+    /** log of (square, previous layer index) for every changed square, used to restore board */
+    private int[] changedIndex = new int[16], changedLayer = new int[16];
+    private int changes = 0;
+    /** move lists owned by this position, one per ply, see generateMoves() */
+    private MoveList[] plyMoves = new MoveList[0];
+    /** status of position in each ply, null if not classified yet, see classify() */
+    private GameStatus[] plyStatus = new GameStatus[1];
+
+    public MutableBoardPosition(
+            Board board, Color turnColor,
+            boolean[] castling, Position enpassant,
+            int halfMoveClock, int fullMoveClock) {
+        this(board, turnColor, castling, enpassant, halfMoveClock, fullMoveClock,
+                Zobrist.compute(board, turnColor, castling, enpassant));
+    }
+
+    public MutableBoardPosition(
+            Board board, Color turnColor,
+            boolean[] castling, Position enpassant,
+            int halfMoveClock, int fullMoveClock,
+            long hashKey) {
+        this.board = toPrimitiveBitBoard(board);
+        this.turnColor = turnColor;
+        this.castling = castling.clone();
+        this.enpassant = enpassant;
+        this.halfMoveClock = halfMoveClock;
+        this.fullMoveClock = fullMoveClock;
+        this.hashKey = hashKey;
+        for(Color color: Color.values()) {
+            long kings = this.board.getLayer(color, PieceType.KING);
+            if(kings != 0)
+                kingIndex[color.ordinal()] = BitBoardLayer.firstIndex(kings);
+        }
+    }
+
+    public MutableBoardPosition(BoardPosition bp) {
+        this(bp.getBoard(), bp.getTurnColor(), bp.getCastling(), bp.getEnpassant(),
+                bp.getHalfMoveClock(), bp.getFullMoveClock(), bp.getHashKey());
+    }
+
+    /** @return PrimitiveBitBoard copy of any board */
+    public static PrimitiveBitBoard toPrimitiveBitBoard(Board board) {
+        if(board instanceof PrimitiveBitBoard)
+            return ((PrimitiveBitBoard)board).clone();
+        ArrayList<Pair<Position, Piece>> work = new ArrayList<>();
+        for(Piece piece: board.getAllPieces())
+            work.add(new Pair<>(piece.pos, piece));
+        return new PrimitiveBitBoard().set(work);
+    }
+
+    public static MutableBoardPosition fromXFEN(String xfen) {
+        return new MutableBoardPosition(BoardPosition.fromXFEN(xfen, new PrimitiveBitBoard()));
+    }
+
+    /** @return independent copy of current state (without move history) */
+    public MutableBoardPosition copy() {
+        return new MutableBoardPosition(this);
+    }
+
+    @Override
+    public MutableBoardPosition create(
+            Board board, Color turnColor,
+            boolean[] castling, Position enpassant,
+            int halfMoveClock, int fullMoveClock) {
+        return new MutableBoardPosition(board, turnColor, castling, enpassant, halfMoveClock, fullMoveClock);
+    }
+
+    @Override
+    public MutableBoardPosition create(
+            Board board, Color turnColor,
+            boolean[] castling, Position enpassant,
+            int halfMoveClock, int fullMoveClock,
+            long hashKey) {
+        return new MutableBoardPosition(board, turnColor, castling, enpassant, halfMoveClock, fullMoveClock, hashKey);
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public PrimitiveBitBoard getBoard() { return board; }
+
+    @Override
+    public Color getTurnColor() { return turnColor; }
+
+    @Override
+    public boolean[] getCastling() { return castling.clone(); }
+
+    @Override
+    public Position getEnpassant() { return enpassant; }
+
+    @Override
+    public int getHalfMoveClock() { return halfMoveClock; }
+
+    @Override
+    public int getFullMoveClock() { return fullMoveClock; }
+
+    @Override
+    public long getHashKey() { return hashKey; }
+
+    @Override
+    public Piece getPiece(Position pos) { return board.getPiece(pos); }
+
+    @Override
+    public PieceType getPieceType(Position pos) { return board.getPiece(pos).type; }
+
+    @Override
+    public Color getPieceColor(Position pos) { return board.getPiece(pos).color; }
+
+    @Override
+    public boolean canCastle(Color color, PieceType side) {
+        return castling[BoardPosition.castlingArrayIndex(color, side)];
+    }
+
+    /** @return number of moves made and not yet taken back */
+    public int getPly() { return ply; }
+
+    /** @return piece captured by last made move (or null) */
+    public Piece getLastCaptured() { return ply == 0 ? null : history[ply - 1].captured; }
+
+    /** @return last made move (or null) */
+    public Move getLastMove() { return ply == 0 ? null : PackedMove.toMove(history[ply - 1].move); }
+
+    /** @return last made move packed (or PackedMove.NONE) */
+    public int getLastPackedMove() { return ply == 0 ? PackedMove.NONE : history[ply - 1].move; }
+
+    /** replaces content of square, logging previous content for unmakeMove and updating hash key */
+    private void setCell(int index, int li) {
+        if(changes == changedIndex.length) {
+            changedIndex = Arrays.copyOf(changedIndex, changes * 2);
+            changedLayer = Arrays.copyOf(changedLayer, changes * 2);
+        }
+        int oldLi = board.getLayerIndex(index);
+        changedIndex[changes] = index;
+        changedLayer[changes] = oldLi;
+        ++changes;
+        hashKey ^= Zobrist.piece(oldLi, index) ^ Zobrist.piece(li, index);
+        putCell(index, li);
+    }
+
+    private void putCell(int index, int li) {
+        board.clearCell(index);
+        if(li < 0)
+            return;
+        board.putCell(index, li);
+        if(li % PrimitiveBitBoard.PIECE_TYPES == PieceType.KING.ordinal() - PieceType.PAWN.ordinal())
+            kingIndex[li / PrimitiveBitBoard.PIECE_TYPES] = index;
+    }
+
+    private static int index(Position pos) { return BitBoardLayer.posToIndex(pos.x, pos.y); }
+
+    private Undo pushUndo(int move) {
+        if(ply == history.length) {
+            history = Arrays.copyOf(history, Math.max(8, ply * 2));
+            for(int i = ply; i < history.length; ++i)
+                history[i] = new Undo();
+        }
+        Undo undo = history[ply++];
+        if(ply == plyStatus.length)
+            plyStatus = Arrays.copyOf(plyStatus, ply * 2);
+        plyStatus[ply] = null;
+        undo.move = move;
+        undo.captured = null;
+        System.arraycopy(castling, 0, undo.castling, 0, castling.length);
+        undo.enpassant = enpassant;
+        undo.halfMoveClock = halfMoveClock;
+        undo.fullMoveClock = fullMoveClock;
+        undo.hashKey = hashKey;
+        undo.changesMark = changes;
+        hashKey ^= Zobrist.castling(castling) ^ Zobrist.enpassant(enpassant); // XOR-ed back in finishMove
+        return undo;
+    }
+
+    /** switches turn and advances clocks, halfmove clock is reset if requested */
+    private void finishMove(boolean resetHalfMoveClock) {
+        hashKey ^= Zobrist.castling(castling) ^ Zobrist.enpassant(enpassant) ^ Zobrist.SIDE;
+        turnColor = turnColor.opposite();
+        int clockChange = turnColor != Rules.FIRST_TURN ? 1 : 0;
+        halfMoveClock = resetHalfMoveClock ? 0 : halfMoveClock + clockChange;
+        fullMoveClock += clockChange;
+    }
+
+    /**
+     * applies move in place, move has to be at least pseudo-legal in current position
+     * (same checks as Move.apply are NOT performed)
+     */
+    public void makeMove(Move move) {
+        makeMove(PackedMove.fromMove(move));
+    }
+
+    /** same as makeMove(Move) for packed move (see PackedMove) */
+    public void makeMove(int move) {
+        Undo undo = pushUndo(move);
+        int from = PackedMove.from(move), to = PackedMove.to(move);
+        int liFrom = board.getLayerIndex(from);
+        switch(PackedMove.flags(move)) {
+            case PackedMove.NORMAL: {
+                Piece pieceFrom = board.getPiece(from);
+                Piece pieceTo = board.getPiece(to);
+                undo.captured = pieceTo;
+                Move.loseCastlingByPiece(castling, pieceFrom);
+                Move.loseCastlingByPiece(castling, pieceTo);
+                enpassant = Move.updateEnpassant(pieceFrom, PackedMove.posTo(move));
+                setCell(from, -1);
+                setCell(to, liFrom);
+                finishMove(!Piece.isEmpty(pieceTo) || pieceFrom.type == PieceType.PAWN);
+                break;
+            }
+            case PackedMove.CASTLING: {
+                int dirKing = to > from ? 1 : -1;
+                int posRook = BitBoardLayer.posToIndex(
+                        dirKing > 0 ? Rules.BORDER_KING : Rules.BORDER_QUEEN, from / BitBoardLayer.BS);
+                int liRook = board.getLayerIndex(posRook);
+                Move.loseCastling(castling, turnColor, null);
+                enpassant = null;
+                setCell(from, -1);
+                setCell(posRook, -1);
+                setCell(to, liFrom);
+                setCell(from + dirKing, liRook);
+                finishMove(false); // castling does not reset half move clock
+                break;
+            }
+            case PackedMove.PROMOTION: {
+                Piece pieceTo = board.getPiece(to);
+                undo.captured = pieceTo;
+                Move.loseCastlingByPiece(castling, pieceTo);
+                enpassant = null;
+                setCell(from, -1);
+                setCell(to, PrimitiveBitBoard.layerIndex(turnColor, PackedMove.promotion(move)));
+                finishMove(true);
+                break;
+            }
+            case PackedMove.ENPASSANT: {
+                int posAttacked = BitBoardLayer.posToIndex(to % BitBoardLayer.BS, from / BitBoardLayer.BS);
+                undo.captured = board.getPiece(posAttacked);
+                enpassant = null;
+                setCell(from, -1);
+                setCell(posAttacked, -1);
+                setCell(to, liFrom);
+                finishMove(true);
+                break;
+            }
+        }
+    }
+
+    /** takes back last move made by makeMove */
+    public void unmakeMove() {
+        if(ply == 0)
+            throw new IllegalStateException("No move to take back");
+        Undo undo = history[--ply];
+        while(changes > undo.changesMark) {
+            --changes;
+            putCell(changedIndex[changes], changedLayer[changes]);
+        }
+        turnColor = turnColor.opposite();
+        System.arraycopy(undo.castling, 0, castling, 0, castling.length);
+        enpassant = undo.enpassant;
+        halfMoveClock = undo.halfMoveClock;
+        fullMoveClock = undo.fullMoveClock;
+        hashKey = undo.hashKey;
+        undo.move = PackedMove.NONE;
+        undo.captured = null;
+    }
+
+    /** fills list with all legal moves of color on turn (packed, see PackedMove) */
+    public void generateMoves(MoveList list) {
+        if(isKingValid())
+            new MoveGenerator(this).generateMoves(list);
+        else
+            list.clear();
+    }
+
+    /**
+     * generates legal moves into list owned by this position for current ply,
+     * so that search can iterate moves without allocation
+     * list is overwritten by next call of generateMoves() in the same ply
+     */
+    public MoveList generateMoves() {
+        MoveList list = getPlyMoveList();
+        generateMoves(list);
+        return list;
+    }
+
+    /** @return move list owned by this position for current ply */
+    private MoveList getPlyMoveList() {
+        if(ply >= plyMoves.length) {
+            int oldLength = plyMoves.length;
+            plyMoves = Arrays.copyOf(plyMoves, Math.max(8, ply * 2));
+            for(int i = oldLength; i < plyMoves.length; ++i)
+                plyMoves[i] = new MoveList();
+        }
+        return plyMoves[ply];
+    }
+
+    /** fills list with legal moves of color on turn which give check (see MoveGenerator.generateChecks) */
+    public void generateChecks(MoveList list) {
+        if(isKingValid())
+            new MoveGenerator(this).generateChecks(list);
+        else
+            list.clear();
+    }
+
+    /** same as generateMoves() but only checking moves are generated */
+    public MoveList generateChecks() {
+        MoveList list = getPlyMoveList();
+        generateChecks(list);
+        return list;
+    }
+
+    /** @return all legal moves of color on turn */
+    public ArrayList<Move> getLegalMoves() {
+        MoveList list = new MoveList();
+        generateMoves(list);
+        ArrayList<Move> result = new ArrayList<>(list.size());
+        for(int i = 0; i < list.size(); ++i)
+            result.add(PackedMove.toMove(list.get(i)));
+        return result;
+    }
+
+    @Override
+    public int countLegalMoves() {
+        return isKingValid() ? new MoveGenerator(this).countLegalMoves() : 0;
+    }
+
+    @Override
+    public boolean hasLegalMove() {
+        return isKingValid() && new MoveGenerator(this).hasLegalMove();
+    }
+
+    @Override
+    public ArrayList<BoardPosition> getNextPositions() {
+        return getNextPositions(null);
+    }
+
+    @Override
+    public ArrayList<BoardPosition> getNextPositions(Perft.Stats stats) {
+        ArrayList<BoardPosition> result = new ArrayList<>();
+        MoveList moves = generateMoves();
+        for(int i = 0; i < moves.size(); ++i) {
+            makeMove(moves.get(i));
+            if(stats != null)
+                Perft.countMove(stats, moves.get(i), getLastCaptured());
+            result.add(copy());
+            unmakeMove();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isKingValid() {
+        for(Color c: Color.values())
+            if(Long.bitCount(board.getLayer(c, PieceType.KING)) != 1)
+                return false;
+        int w = kingIndex[Color.WHITE.ordinal()], b = kingIndex[Color.BLACK.ordinal()];
+        return Math.abs(w % BitBoardLayer.BS - b % BitBoardLayer.BS) +
+                Math.abs(w / BitBoardLayer.BS - b / BitBoardLayer.BS) != 1;
+    }
+
+    /** squares with x+y even (a1 is dark) */
+    private static final long DARK_SQUARES = 0xAA55AA55AA55AA55L;
+
+    @Override
+    public boolean isDeadPosition() {
+        for(PieceType t: new PieceType[]{PieceType.PAWN, PieceType.ROOK, PieceType.QUEEN})
+            for(Color c: Color.values())
+                if(board.getLayer(c, t) != 0)
+                    return false;
+
+        long bB = board.getLayer(Color.BLACK, PieceType.BISHOP);
+        long bW = board.getLayer(Color.WHITE, PieceType.BISHOP);
+        int sum = Long.bitCount(board.getLayer(Color.BLACK, PieceType.KNIGHT)) +
+                Long.bitCount(board.getLayer(Color.WHITE, PieceType.KNIGHT)) +
+                Long.bitCount(bB) + Long.bitCount(bW);
+        if(sum > 2)
+            return false;
+        if(sum < 2)
+            return true;
+        // sum == 2
+        if(!(Long.bitCount(bB) == 1 && Long.bitCount(bW) == 1))
+            return false;
+        return ((bB & DARK_SQUARES) == 0) == ((bW & DARK_SQUARES) == 0);
+    }
+
+    @Override
+    public boolean canCallDraw() {
+        return getHalfMoveClock() >= Rules.DRAW_HALFMOVES_CLAIM;
+    }
+
+    @Override
+    public boolean isCheck(Color color) {
+        int index = kingIndex[color.ordinal()];
+        return index >= 0 && board.isAttacked(index, color.opposite());
+    }
+
+    @Override
+    public GameStatus classify() {
+        if(plyStatus[ply] == null)
+            plyStatus[ply] = BoardPosition.classify(this);
+        return plyStatus[ply];
+    }
+}
@@ -0,0 +1,79 @@
+package plachess.engine;
+
+/**
+ * moves packed into lower 16 bits of int, so that they can be generated and stored without allocation
+ * bits 0-5 square from, bits 6-11 square to (indices of BitBoardLayer),
+ * bits 12-13 promotion piece (KNIGHT, BISHOP, ROOK, QUEEN) and bits 14-15 flags
+ * castling is stored as move of king
+ */
+public interface PackedMove {
+    int NORMAL = 0;
+    int PROMOTION = 1;
+    int ENPASSANT = 2;
+    int CASTLING = 3;
+
+    /** no legal move packs to 0 (from and to would be the same square) */
+    int NONE = 0;
+
+    static int make(int from, int to, int flags) {
+        return from | to << 6 | flags << 14;
+    }
+
+    static int makePromotion(int from, int to, PieceType promotion) {
+        return make(from, to, PROMOTION) | (promotion.ordinal() - PieceType.KNIGHT.ordinal()) << 12;
+    }
+
+    static int from(int move) { return move & 0x3F; }
+    static int to(int move) { return move >>> 6 & 0x3F; }
+    static int flags(int move) { return move >>> 14 & 3; }
+
+    /** only valid for PROMOTION moves */
+    static PieceType promotion(int move) {
+        return Rules.PAWN_PROMOTION_OPTIONS.get(move >>> 12 & 3);
+    }
+
+    static Position posFrom(int move) { return Position.getNew(from(move) % BitBoardLayer.BS, from(move) / BitBoardLayer.BS); }
+    static Position posTo(int move) { return Position.getNew(to(move) % BitBoardLayer.BS, to(move) / BitBoardLayer.BS); }
+
+    static int fromMove(Move move) {
+        if(move instanceof Move.MoveSimple) {
+            Move.MoveSimple m = (Move.MoveSimple)move;
+            return make(index(m.posFrom), index(m.posTo), NORMAL);
+        } else if(move instanceof Move.MoveCastling) {
+            Move.MoveCastling m = (Move.MoveCastling)move;
+            int homeRow = Rules.getColorHomeRow(m.color);
+            int dirKing = m.side == PieceType.KING ? 1 : -1;
+            return make(BitBoardLayer.posToIndex(Rules.COL_KING, homeRow),
+                    BitBoardLayer.posToIndex(Rules.COL_KING + 2 * dirKing, homeRow), CASTLING);
+        } else if(move instanceof Move.MovePawnPromotion) {
+            Move.MovePawnPromotion m = (Move.MovePawnPromotion)move;
+            return makePromotion(index(m.posFrom), index(m.posTo), m.promotion);
+        } else if(move instanceof Move.MoveEnpassant) {
+            Move.MoveEnpassant m = (Move.MoveEnpassant)move;
+            return make(index(m.posFrom), index(m.posTo), ENPASSANT);
+        }
+        throw new IllegalArgumentException("Unsupported move " + move);
+    }
+
+    static Move toMove(int move) {
+        switch(flags(move)) {
+            case PROMOTION: return new Move.MovePawnPromotion(posFrom(move), posTo(move), promotion(move));
+            case ENPASSANT: return new Move.MoveEnpassant(posFrom(move), posTo(move));
+            case CASTLING: return new Move.MoveCastling(
+                    posFrom(move).y == Rules.ROW_WHITE ? Color.WHITE : Color.BLACK,
+                    to(move) > from(move) ? PieceType.KING : PieceType.QUEEN);
+            default: return new Move.MoveSimple(posFrom(move), posTo(move));
+        }
+    }
+
+    static int index(Position pos) { return BitBoardLayer.posToIndex(pos.x, pos.y); }
+
+    /** @return move in coordinate notation (e.g. e2e4, e7e8q) */
+    static String toString(int move) {
+        String result = "" + (char)('a' + posFrom(move).x) + (posFrom(move).y + 1) +
+                (char)('a' + posTo(move).x) + (posTo(move).y + 1);
+        if(flags(move) == PROMOTION)
+            result += Character.toLowerCase(Rules.piece2char.get(new Pair<>(Color.BLACK, promotion(move))));
+        return result;
+    }
+}
@@ -2,6 +2,9 @@ package plachess.engine;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * correctness testing class
@@ -11,18 +14,31 @@ import java.util.Arrays;
 public class Perft {
     public static class Stats {
         public int depth = 0;
-        public int nodes = 0;
-        public int captures = 0;
-        public int enpassants = 0;
-        public int castles = 0;
-        public int promotions = 0;
-        public int checks = 0;
-        public int checkmates = 0;
-        public int draws = 0;
+        public long nodes = 0;
+        public long captures = 0;
+        public long enpassants = 0;
+        public long castles = 0;
+        public long promotions = 0;
+        public long checks = 0;
+        public long checkmates = 0;
+        public long draws = 0;
 
         public Stats() {
         }
 
+        /** adds counts of other (e.g. of another subtree searched by other thread) */
+        public void merge(Stats other) {
+            depth = Math.max(depth, other.depth);
+            nodes += other.nodes;
+            captures += other.captures;
+            enpassants += other.enpassants;
+            castles += other.castles;
+            promotions += other.promotions;
+            checks += other.checks;
+            checkmates += other.checkmates;
+            draws += other.draws;
+        }
+
         @Override
         public String toString() {
             return String.format(
@@ -31,6 +47,14 @@ public class Perft {
         }
     }
 
+    /** updates move-type statistics for packed move (see PackedMove) that has just been made */
+    public static void countMove(Stats stats, int move, Piece captured) {
+        if(!Piece.isEmpty(captured)) stats.captures++;
+        if(PackedMove.flags(move) == PackedMove.CASTLING) stats.castles++;
+        if(PackedMove.flags(move) == PackedMove.ENPASSANT) stats.enpassants++;
+        if(PackedMove.flags(move) == PackedMove.PROMOTION) stats.promotions++;
+    }
+
     public static void recurse(BoardPosition bp, int depth, Stats stats) {
         if(depth == 0) {
             stats.nodes += 1;
@@ -39,7 +63,7 @@ public class Perft {
 //            stats.draws += bp.isDraw() ? 1 : 0;
             return;
         }
-        if(depth < 0 || bp.isCheckMate() || bp.isDraw())
+        if(depth < 0 || bp.classify() != GameStatus.IN_PLAY)
             return;
 
         for (BoardPosition next : bp.getNextPositions(depth == 1 ? stats : null)) {
@@ -48,51 +72,234 @@ public class Perft {
         }
     }
 
-    public static boolean test(Board emptyBoard) {
-        ArrayList<Pair<String, ArrayList<Integer>>> tests = new ArrayList<>(Arrays.asList(
+    /** same as recurse but depth-first on one position by making and taking back moves */
+    public static void recurse(MutableBoardPosition bp, int depth, Stats stats) {
+        if(depth == 0) {
+            stats.nodes += 1;
+            stats.checks += bp.isCheck(bp.getTurnColor()) ? 1 : 0;
+            return;
+        }
+        if(depth < 0 || bp.classify() != GameStatus.IN_PLAY)
+            return;
+
+        MoveList moves = bp.generateMoves();
+        for(int i = 0; i < moves.size(); ++i) {
+            bp.makeMove(moves.get(i));
+            if(depth == 1)
+                countMove(stats, moves.get(i), bp.getLastCaptured());
+            recurse(bp, depth - 1, stats);
+            bp.unmakeMove();
+        }
+    }
+
+    /**
+     * counts only nodes (positions reachable in exactly depth plies)
+     * positions in depth 1 are not created, only legal moves are counted (see BoardPosition.countLegalMoves)
+     * if cache is given, counts of subtrees are stored in it, so transposed subtrees are counted once
+     * clocks are not part of position hash, which does not matter as long as the 75-move rule cannot be reached
+     */
+    public static long countNodes(BoardPosition bp, int depth, PerftCache cache) {
+        if(depth == 0)
+            return 1;
+        if(depth < 0)
+            return 0;
+        if(depth == 1) {
+            int moves = bp.countLegalMoves();
+            return moves == 0 || BoardPosition.isDraw(bp, true, bp.getTurnColor()) ? 0 : moves;
+        }
+        long key = bp.getHashKey();
+        long nodes = cache == null ? PerftCache.MISSING : cache.probe(key, depth);
+        if(nodes != PerftCache.MISSING)
+            return nodes;
+
+        nodes = 0;
+        if(bp.classify() == GameStatus.IN_PLAY) {
+            if(bp instanceof MutableBoardPosition) {
+                MutableBoardPosition mbp = (MutableBoardPosition)bp;
+                MoveList moves = mbp.generateMoves();
+                for(int i = 0; i < moves.size(); ++i) {
+                    mbp.makeMove(moves.get(i));
+                    nodes += countNodes(mbp, depth - 1, cache);
+                    mbp.unmakeMove();
+                }
+            } else {
+                for(BoardPosition next: bp.getNextPositions()) {
+                    nodes += countNodes(next, depth - 1, cache);
+                    next.destroy();
+                }
+            }
+        }
+        if(cache != null)
+            cache.store(key, depth, nodes);
+        return nodes;
+    }
+
+    /** subtrees shallower than this are not split between tasks */
+    private static final int SPLIT_DEPTH = 3;
+
+    /** runs recurse overload matching actual type of bp, or countNodes if only nodes are counted */
+    private static void recurseAny(BoardPosition bp, int depth, Stats stats, boolean nodesOnly, PerftCache cache) {
+        if(nodesOnly)
+            stats.nodes += countNodes(bp, depth, cache);
+        else if(bp instanceof MutableBoardPosition)
+            recurse((MutableBoardPosition)bp, depth, stats);
+        else
+            recurse(bp, depth, stats);
+    }
+
+    /**
+     * perft of one subtree with its own Stats, split into task per move down to SPLIT_DEPTH
+     * MutableBoardPosition is copied for every child task, so no position is shared between threads
+     */
+    private static class PerftTask extends RecursiveTask<Stats> {
+        private static final long serialVersionUID = 1L;
+
+        private final BoardPosition bp;
+        private final int depth;
+        private final boolean nodesOnly;
+        private final PerftCache cache;
+
+        PerftTask(BoardPosition bp, int depth, boolean nodesOnly, PerftCache cache) {
+            this.bp = bp;
+            this.depth = depth;
+            this.nodesOnly = nodesOnly;
+            this.cache = cache;
+        }
+
+        @Override
+        protected Stats compute() {
+            Stats stats = new Stats();
+            if(depth < SPLIT_DEPTH) {
+                recurseAny(bp, depth, stats, nodesOnly, cache);
+                return stats;
+            }
+            if(bp.classify() != GameStatus.IN_PLAY)
+                return stats;
+
+            List<PerftTask> tasks = new ArrayList<>();
+            if(bp instanceof MutableBoardPosition) {
+                MutableBoardPosition mbp = (MutableBoardPosition)bp;
+                MoveList moves = mbp.generateMoves();
+                for(int i = 0; i < moves.size(); ++i) {
+                    mbp.makeMove(moves.get(i));
+                    tasks.add(new PerftTask(mbp.copy(), depth - 1, nodesOnly, cache));
+                    mbp.unmakeMove();
+                }
+            } else {
+                for(BoardPosition next: bp.getNextPositions())
+                    tasks.add(new PerftTask(next, depth - 1, nodesOnly, cache));
+            }
+            invokeAll(tasks);
+            for(PerftTask task: tasks) {
+                stats.merge(task.join());
+                task.bp.destroy();
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * counts positions reachable from bp in given depth
+     * @param parallelism number of threads of ForkJoinPool, 1 means sequential recurse in calling thread
+     * @param nodesOnly count only nodes using countNodes (with bulk counting in depth 1),
+     *                  other statistics stay zero
+     * @param cache shared cache of subtree counts used when nodesOnly is set, can be null
+     */
+    public static Stats run(BoardPosition bp, int depth, int parallelism, boolean nodesOnly, PerftCache cache) {
+        Stats stats;
+        if(parallelism <= 1) {
+            stats = new Stats();
+            recurseAny(bp, depth, stats, nodesOnly, cache);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                stats = pool.invoke(new PerftTask(bp, depth, nodesOnly, cache));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        stats.depth = depth;
+        return stats;
+    }
+
+    public static Stats run(BoardPosition bp, int depth, int parallelism) {
+        return run(bp, depth, parallelism, false, null);
+    }
+
+    /** reference positions with numbers of reachable positions in depth 0, 1, 2, ... */
+    private static final ArrayList<Pair<String, ArrayList<Long>>> tests = new ArrayList<>(Arrays.asList(
                 new Pair<>(
                         "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
-                        new ArrayList<>(Arrays.asList(1, 20, 400, 8902, 197281, 4865609))
+                        new ArrayList<>(Arrays.asList(1L, 20L, 400L, 8902L, 197281L, 4865609L, 119060324L, 3195901860L))
                 ),
                 new Pair<>(
                         "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
-                        new ArrayList<>(Arrays.asList(1, 48, 2039, 97862, 4085603))
+                        new ArrayList<>(Arrays.asList(1L, 48L, 2039L, 97862L, 4085603L, 193690690L, 8031647685L))
                 ),
                 new Pair<>(
                         "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
-                        new ArrayList<>(Arrays.asList(1, 14, 191, 2812, 43238, 674624, 11030083))
+                        new ArrayList<>(Arrays.asList(1L, 14L, 191L, 2812L, 43238L, 674624L, 11030083L, 178633661L, 3009794393L))
                 ),
                 new Pair<>(
                         "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
-                        new ArrayList<>(Arrays.asList(1, 6, 264, 9467, 422333, 15833292))
+                        new ArrayList<>(Arrays.asList(1L, 6L, 264L, 9467L, 422333L, 15833292L, 706045033L))
                 ),
                 new Pair<>(
                         "r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ - 0 1",
-                        new ArrayList<>(Arrays.asList(1, 6, 264, 9467, 422333, 15833292))
+                        new ArrayList<>(Arrays.asList(1L, 6L, 264L, 9467L, 422333L, 15833292L, 706045033L))
                 ),
                 new Pair<>(
                         "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
-                        new ArrayList<>(Arrays.asList(1, 44, 1486, 62379, 2103487))
+                        new ArrayList<>(Arrays.asList(1L, 44L, 1486L, 62379L, 2103487L, 89941194L))
                 ),
                 new Pair<>(
                         "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
-                        new ArrayList<>(Arrays.asList(1, 46, 2079, 89890, 3894594))
+                        new ArrayList<>(Arrays.asList(1L, 46L, 2079L, 89890L, 3894594L, 164075551L, 6923051137L))
                 )
             ));
 
+    /** @return XFENs of reference positions */
+    static List<String> getTestPositions() {
+        List<String> result = new ArrayList<>();
+        for(Pair<String, ArrayList<Long>> test: tests)
+            result.add(test.frst);
+        return result;
+    }
+
+    public static boolean test(Board emptyBoard) {
+        return test(emptyBoard, false);
+    }
+
+    /** runs all reference tests, with mutable=true the depth-first MutableBoardPosition is used instead */
+    public static boolean test(Board emptyBoard, boolean mutable) {
+        return test(emptyBoard, mutable, (long)1e9, Runtime.getRuntime().availableProcessors(), false, null);
+    }
+
+    /**
+     * runs reference tests with at most maxNodes nodes in parallel perft
+     * @param parallelism number of threads, see run
+     * @param nodesOnly count only nodes, see run
+     * @param cache cache of subtree counts shared by all tests or null, see run
+     */
+    public static boolean test(Board emptyBoard, boolean mutable, long maxNodes, int parallelism,
+                               boolean nodesOnly, PerftCache cache) {
         boolean ok = true;
-        for(Pair<String, ArrayList<Integer>> test: tests) {
+        for(Pair<String, ArrayList<Long>> test: tests) {
             String xfen = test.frst;
-            ArrayList<Integer> nodes = test.scnd;
+            ArrayList<Long> nodes = test.scnd;
             for(int depth=0; depth < nodes.size(); ++depth) {
-                int wantedResult = nodes.get(depth);
-                if(wantedResult > 1e7) continue; // TODO remove
+                long wantedResult = nodes.get(depth);
+                if(wantedResult > maxNodes)
+                    break;
                 System.out.printf("Testing %s in depth %d - should be %d\n", xfen, depth, wantedResult);
-                Stats stats = new Stats();
                 BoardPosition bp = BoardPosition.fromXFEN(xfen, emptyBoard);
-                recurse(bp, depth, stats);
-//                System.out.printf("Wrong number of nodes in test\n%s\nin depth %d should be %d but was %d\nStats: %s\n",
-//                        xfen, depth, wantedResult, stats.nodes, stats);
+                if(mutable)
+                    bp = new MutableBoardPosition(bp);
+                long start = System.nanoTime();
+                Stats stats = run(bp, depth, parallelism, nodesOnly, cache);
+                long nanos = Math.max(1, System.nanoTime() - start);
+                System.out.printf("%d nodes in %dms (%d nodes/s)\n",
+                        stats.nodes, nanos / 1000000, stats.nodes * 1000000000L / nanos);
                 if(stats.nodes != wantedResult) {
                     System.out.printf("Wrong number of nodes in test\n%s\nin depth %d should be %d but was %d\nStats: %s\n",
                             xfen, depth, wantedResult, stats.nodes, stats);
@@ -0,0 +1,67 @@
+package plachess.engine;
+
+import java.util.Arrays;
+
+/**
+ * fixed-size table of perft subtree sizes keyed by (position hash, depth)
+ * every bucket has two slots, first one is depth-preferred and second one is always replaced
+ * can be shared by threads without locking - key is stored XOR-ed with data,
+ * so entry torn by concurrent writes does not match its key and is treated as missing
+ */
+public class PerftCache {
+    public static final long MISSING = -1L;
+    private static final int SLOTS = 2;
+    private static final int DEPTH_BITS = 8;
+    private static final long DEPTH_MASK = (1L << DEPTH_BITS) - 1;
+
+    /** key XOR data */
+    private final long[] keys;
+    /** node count in upper 56 bits, depth in lower 8 bits */
+    private final long[] data;
+    private final int bucketMask;
+
+    /** @param log2Buckets table will have 2^log2Buckets buckets (each with two slots) */
+    public PerftCache(int log2Buckets) {
+        keys = new long[SLOTS << log2Buckets];
+        data = new long[SLOTS << log2Buckets];
+        bucketMask = (1 << log2Buckets) - 1;
+        clear();
+    }
+
+    public void clear() {
+        Arrays.fill(data, MISSING);
+    }
+
+    private int bucket(long key) {
+        return ((int)(key ^ (key >>> 32)) & bucketMask) * SLOTS;
+    }
+
+    /** @return number of nodes in given depth below position with given key or MISSING */
+    public long probe(long key, int depth) {
+        int b = bucket(key);
+        for(int i = b; i < b + SLOTS; ++i) {
+            long entry = data[i];
+            if((keys[i] ^ entry) == key && entry != MISSING && (entry & DEPTH_MASK) == depth)
+                return entry >>> DEPTH_BITS;
+        }
+        return MISSING;
+    }
+
+    /** depth has to be less than 256 */
+    public void store(long key, int depth, long nodes) {
+        int b = bucket(key);
+        long entry = (nodes << DEPTH_BITS) | depth;
+        long oldEntry = data[b];
+        if(oldEntry == MISSING || (oldEntry & DEPTH_MASK) <= depth) {
+            if(oldEntry != MISSING) { // demote previous occupant
+                keys[b + 1] = keys[b];
+                data[b + 1] = oldEntry;
+            }
+            keys[b] = key ^ entry;
+            data[b] = entry;
+        } else {
+            keys[b + 1] = key ^ entry;
+            data[b + 1] = entry;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package plachess.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implementation of Board keeping one 64-bit set for every (color, piece type) pair,
+ * both color sets and occupancy, all as primitive longs in one array
+ * queries are plain bit operations and never allocate (Pieces and Positions come from static caches)
+ */
+public class PrimitiveBitBoard implements Board {
+    public static final int PIECE_TYPES = 6;
+    /** number of (color, piece type) layers */
+    public static final int LAYERS = 2 * PIECE_TYPES;
+    public static final int WHITE_LAYER = LAYERS;
+    public static final int BLACK_LAYER = LAYERS + 1;
+    public static final int OCCUPIED_LAYER = LAYERS + 2;
+
+    /** every possible piece on every square, so that getPiece does not have to allocate */
+    private static final Piece[][] pieceCache = new Piece[LAYERS][BitBoardLayer.BA];
+
+    static {
+        for(Color color: Color.values())
+            for(PieceType type: BitBoardImplementation.supportedPieceTypes)
+                for(int i = 0; i < BitBoardLayer.BA; ++i)
+                    pieceCache[layerIndex(color, type)][i] =
+                            new Piece(i % BitBoardLayer.BS, i / BitBoardLayer.BS, color, type);
+    }
+
+    /** 12 piece layers followed by white, black and occupied layer */
+    protected final long[] layers;
+
+    public PrimitiveBitBoard() {
+        layers = new long[LAYERS + 3];
+    }
+
+    public PrimitiveBitBoard(PrimitiveBitBoard board) {
+        layers = board.layers.clone();
+    }
+
+    @Override
+    public PrimitiveBitBoard clone() {
+        return new PrimitiveBitBoard(this);
+    }
+
+    /** @return index to layers for given color and piece type (PAWN..KING) */
+    public static int layerIndex(Color color, PieceType type) {
+        return color.ordinal() * PIECE_TYPES + type.ordinal() - PieceType.PAWN.ordinal();
+    }
+
+    public static int colorLayerIndex(Color color) {
+        return color == Color.WHITE ? WHITE_LAYER : BLACK_LAYER;
+    }
+
+    public static Piece getCachedPiece(Color color, PieceType type, int index) {
+        return pieceCache[layerIndex(color, type)][index];
+    }
+
+    public long getLayer(Color color, PieceType type) { return layers[layerIndex(color, type)]; }
+    public long getLayer(int li) { return layers[li]; }
+    public long getColorLayer(Color color) { return layers[colorLayerIndex(color)]; }
+    public long getOccupied() { return layers[OCCUPIED_LAYER]; }
+
+    /** @return layer index of piece on given square or -1 if empty */
+    public int getLayerIndex(int index) {
+        if(!BitBoardLayer.isCell(layers[OCCUPIED_LAYER], index))
+            return -1;
+        int first = BitBoardLayer.isCell(layers[WHITE_LAYER], index) ? 0 : PIECE_TYPES;
+        for(int li = first; li < first + PIECE_TYPES; ++li)
+            if(BitBoardLayer.isCell(layers[li], index))
+                return li;
+        return -1;
+    }
+
+    public Piece getPiece(int index) {
+        int li = getLayerIndex(index);
+        return li < 0 ? Piece.empty() : pieceCache[li][index];
+    }
+
+    @Override
+    public boolean isOccupied(int x, int y) {
+        return BitBoardLayer.isCell(layers[OCCUPIED_LAYER], x, y);
+    }
+
+    @Override
+    public Piece getPiece(int x, int y) {
+        return getPiece(BitBoardLayer.posToIndex(x, y));
+    }
+
+    @Override
+    public ArrayList<Piece> getAllPieces() {
+        ArrayList<Piece> result = new ArrayList<>(Long.bitCount(layers[OCCUPIED_LAYER]));
+        for(long b = layers[OCCUPIED_LAYER]; b != 0; b = BitBoardLayer.popFirst(b))
+            result.add(getPiece(BitBoardLayer.firstIndex(b)));
+        return result;
+    }
+
+    /** @return all squares reachable by simple moves (travel/capture) of piece of given layer from index */
+    public long getMovesLayer(int li, int index) {
+        Color color = li < PIECE_TYPES ? Color.WHITE : Color.BLACK;
+        PieceType type = pieceCache[li][index].type;
+        long occupied = layers[OCCUPIED_LAYER];
+        long own = layers[colorLayerIndex(color)];
+        if(type == PieceType.PAWN) {
+            long enemy = layers[colorLayerIndex(color.opposite())];
+            long result = BitBoardImplementation.getAttackPatternPawn(color, index) & enemy;
+            int next = index + Rules.getColorDirection(color) * BitBoardLayer.BS;
+            if(next >= 0 && next < BitBoardLayer.BA && !BitBoardLayer.isCell(occupied, next)) {
+                result |= BitBoardLayer.bit(next);
+                int next2 = next + Rules.getColorDirection(color) * BitBoardLayer.BS;
+                boolean hasMoved = index / BitBoardLayer.BS != Rules.getColorHomeRow(color) + Rules.getColorDirection(color);
+                if(!hasMoved && !BitBoardLayer.isCell(occupied, next2))
+                    result |= BitBoardLayer.bit(next2);
+            }
+            return result;
+        }
+        return getAttacks(type, color, index, occupied) & ~own;
+    }
+
+    /** @return squares attacked by given piece type of given color standing on index (own pieces included) */
+    public static long getAttacks(PieceType type, Color color, int index, long occupied) {
+        if(type == PieceType.PAWN)
+            return BitBoardImplementation.getAttackPatternPawn(color, index);
+        if(BitBoardMagic.isSliding(type))
+            return BitBoardMagic.getAttacks(type, index, occupied);
+        return BitBoardImplementation.getAttackPattern(type, index);
+    }
+
+    @Override
+    public ArrayList<Move.MoveSimple> getSimpleMoves(Position pos) {
+        int index = BitBoardLayer.posToIndex(pos.x, pos.y);
+        int li = getLayerIndex(index);
+        if(li < 0)
+            return null;
+        long moves = getMovesLayer(li, index);
+        ArrayList<Move.MoveSimple> result = new ArrayList<>(Long.bitCount(moves));
+        for(; moves != 0; moves = BitBoardLayer.popFirst(moves)) {
+            int to = BitBoardLayer.firstIndex(moves);
+            result.add(new Move.MoveSimple(pos, Position.getNew(to % BitBoardLayer.BS, to / BitBoardLayer.BS)));
+        }
+        return result;
+    }
+
+    /** @return mask of pieces of color byColor attacking given square (piece standing there is ignored) */
+    public long getAttackers(int index, Color byColor) {
+        long occupied = layers[OCCUPIED_LAYER];
+        Color victim = byColor.opposite();
+        long diagonal = getLayer(byColor, PieceType.BISHOP) | getLayer(byColor, PieceType.QUEEN);
+        long straight = getLayer(byColor, PieceType.ROOK) | getLayer(byColor, PieceType.QUEEN);
+        return (BitBoardImplementation.getAttackPatternPawn(victim, index) & getLayer(byColor, PieceType.PAWN)) |
+                (BitBoardImplementation.getAttackPattern(PieceType.KNIGHT, index) & getLayer(byColor, PieceType.KNIGHT)) |
+                (BitBoardImplementation.getAttackPattern(PieceType.KING, index) & getLayer(byColor, PieceType.KING)) |
+                (BitBoardMagic.bishopAttacks(index, occupied) & diagonal) |
+                (BitBoardMagic.rookAttacks(index, occupied) & straight);
+    }
+
+    /** @return whether any piece of color byColor attacks given square */
+    public boolean isAttacked(int index, Color byColor) {
+        return getAttackers(index, byColor) != 0;
+    }
+
+    @Override
+    public ArrayList<Position> getThreatening(Piece piece) {
+        ArrayList<Position> result = new ArrayList<>();
+        long attackers = getAttackers(BitBoardLayer.posToIndex(piece.pos.x, piece.pos.y), piece.color.opposite());
+        for(; attackers != 0; attackers = BitBoardLayer.popFirst(attackers)) {
+            int i = BitBoardLayer.firstIndex(attackers);
+            result.add(Position.getNew(i % BitBoardLayer.BS, i / BitBoardLayer.BS));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isThreatened(Piece piece) {
+        return isAttacked(BitBoardLayer.posToIndex(piece.pos.x, piece.pos.y), piece.color.opposite());
+    }
+
+    /** not cached, board can be changed in place (see MutableBoardPosition) */
+    @Override
+    public long attackedSquares(Color color) {
+        return attackedSquares(color, layers[OCCUPIED_LAYER]);
+    }
+
+    /** @return squares attacked by all pieces of given color given occupancy, computed set-wise (see BitBoardLayer) */
+    public long attackedSquares(Color color, long occupied) {
+        long queens = getLayer(color, PieceType.QUEEN);
+        return BitBoardLayer.pawnFill(getLayer(color, PieceType.PAWN), color) |
+                BitBoardLayer.knightFill(getLayer(color, PieceType.KNIGHT)) |
+                BitBoardLayer.kingFill(getLayer(color, PieceType.KING)) |
+                BitBoardLayer.diagonalFill(getLayer(color, PieceType.BISHOP) | queens, occupied) |
+                BitBoardLayer.straightFill(getLayer(color, PieceType.ROOK) | queens, occupied);
+    }
+
+    /** in-place removal of whatever stands on given square */
+    void clearCell(int index) {
+        long mask = ~BitBoardLayer.bit(index);
+        for(int li = 0; li < layers.length; ++li)
+            layers[li] &= mask;
+    }
+
+    /** in-place placement of piece of given layer on given square (square has to be empty) */
+    void putCell(int index, int li) {
+        long bit = BitBoardLayer.bit(index);
+        layers[li] |= bit;
+        layers[li < PIECE_TYPES ? WHITE_LAYER : BLACK_LAYER] |= bit;
+        layers[OCCUPIED_LAYER] |= bit;
+    }
+
+    @Override
+    public PrimitiveBitBoard set(List<Pair<Position, Piece>> work) {
+        PrimitiveBitBoard result = new PrimitiveBitBoard(this);
+        for(Pair<Position, Piece> p: work) {
+            int index = BitBoardLayer.posToIndex(p.frst.x, p.frst.y);
+            result.clearCell(index);
+            if(!Piece.isEmpty(p.scnd))
+                result.putCell(index, layerIndex(p.scnd.color, p.scnd.type));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+package plachess.engine;
+
+/**
+ * symmetries of board used to give positions which differ only by orientation the same hash key
+ * symmetry is bit mask applied in this order: 1 reverses columns, 2 reverses rows,
+ * 4 flips by lower-left to upper-right diagonal (see BitBoardLayer)
+ * pawnless positions without castling rights have all 8 symmetries, positions with pawns and without castling rights
+ * only reversing of columns, positions with castling rights none
+ * board of position has to be PrimitiveBitBoard
+ */
+public class Symmetry {
+    public static final int IDENTITY = 0;
+    public static final int COLUMNS = 1;
+    public static final int ROWS = 2;
+    public static final int DIAGONAL = 4;
+    public static final int COUNT = 8;
+
+    /** @return layer (see BitBoardLayer) transformed by symmetry */
+    public static long layer(long b, int symmetry) {
+        if((symmetry & COLUMNS) != 0)
+            b = BitBoardLayer.flipVertical(b);
+        if((symmetry & ROWS) != 0)
+            b = BitBoardLayer.flipHorizontal(b);
+        if((symmetry & DIAGONAL) != 0)
+            b = BitBoardLayer.flipDiagonal(b);
+        return b;
+    }
+
+    /** @return index of square (see BitBoardLayer) transformed by symmetry */
+    public static int square(int index, int symmetry) {
+        int x = index % BitBoardLayer.BS, y = index / BitBoardLayer.BS;
+        if((symmetry & COLUMNS) != 0)
+            x = BitBoardLayer.BS - 1 - x;
+        if((symmetry & ROWS) != 0)
+            y = BitBoardLayer.BS - 1 - y;
+        return (symmetry & DIAGONAL) != 0 ? BitBoardLayer.posToIndex(y, x) : BitBoardLayer.posToIndex(x, y);
+    }
+
+    /** @return packed move (see PackedMove) transformed by symmetry, NONE stays NONE */
+    public static int move(int move, int symmetry) {
+        if(move == PackedMove.NONE || symmetry == IDENTITY)
+            return move;
+        int from = square(PackedMove.from(move), symmetry), to = square(PackedMove.to(move), symmetry);
+        return move & ~0xFFF | from | to << 6;
+    }
+
+    /** @return symmetry undoing given one (diagonal flip swaps reversing of columns and rows) */
+    public static int inverse(int symmetry) {
+        if((symmetry & DIAGONAL) == 0)
+            return symmetry;
+        return DIAGONAL | (symmetry & COLUMNS) << 1 | (symmetry & ROWS) >> 1;
+    }
+
+    /** @return number of symmetries which keep position legal (1, 2 or 8), they are the first symmetries */
+    public static int count(BoardPosition bp) {
+        for(Color color: Color.values())
+            if(bp.canCastle(color, PieceType.KING) || bp.canCastle(color, PieceType.QUEEN))
+                return 1;
+        PrimitiveBitBoard board = (PrimitiveBitBoard)bp.getBoard();
+        if((board.getLayer(Color.WHITE, PieceType.PAWN) | board.getLayer(Color.BLACK, PieceType.PAWN)) != 0)
+            return 2;
+        return COUNT;
+    }
+
+    /**
+     * @return symmetry transforming position to its canonical form,
+     *         the one with the smallest layers (compared in order of PrimitiveBitBoard layers, then en passant file)
+     */
+    public static int canonical(BoardPosition bp) {
+        int count = count(bp);
+        if(count == 1)
+            return IDENTITY;
+        PrimitiveBitBoard board = (PrimitiveBitBoard)bp.getBoard();
+        int best = IDENTITY;
+        for(int symmetry = 1; symmetry < count; ++symmetry)
+            if(compare(board, bp.getEnpassant(), symmetry, best) < 0)
+                best = symmetry;
+        return best;
+    }
+
+    /** @return comparison of position transformed by symmetry a and by symmetry b */
+    private static int compare(PrimitiveBitBoard board, Position enpassant, int a, int b) {
+        for(int li = 0; li < PrimitiveBitBoard.LAYERS; ++li) {
+            long layer = board.getLayer(li);
+            int result = Long.compareUnsigned(layer(layer, a), layer(layer, b));
+            if(result != 0)
+                return result;
+        }
+        if(enpassant == null)
+            return 0;
+        int index = BitBoardLayer.posToIndex(enpassant.x, enpassant.y);
+        return Integer.compare(square(index, a), square(index, b));
+    }
+
+    /** @return hash key (see Zobrist) of position transformed by symmetry */
+    public static long hashKey(BoardPosition bp, int symmetry) {
+        if(symmetry == IDENTITY)
+            return bp.getHashKey();
+        PrimitiveBitBoard board = (PrimitiveBitBoard)bp.getBoard();
+        long result = Zobrist.side(bp.getTurnColor());
+        Position enpassant = bp.getEnpassant();
+        if(enpassant != null) // only columns can be reversed in positions with pawns
+            result ^= Zobrist.enpassant(Position.getNew(BitBoardLayer.BS - 1 - enpassant.x, enpassant.y));
+        for(int li = 0; li < PrimitiveBitBoard.LAYERS; ++li)
+            for(long b = board.getLayer(li); b != 0; b = BitBoardLayer.popFirst(b))
+                result ^= Zobrist.piece(li, square(BitBoardLayer.firstIndex(b), symmetry));
+        return result;
+    }
+
+    /** @return hash key of canonical form of position, the same for all its symmetric positions */
+    public static long canonicalHashKey(BoardPosition bp) {
+        return hashKey(bp, canonical(bp));
+    }
+}
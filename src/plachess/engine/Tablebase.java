@@ -0,0 +1,464 @@
+package plachess.engine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * distance-to-mate table of one pawnless material (e.g. KQKR, stronger side first) built by retrograde analysis,
+ * positions are without castling rights, clocks and repetitions are ignored
+ * in the table stronger side is white, position is indexed by side to move, square of white king
+ * (one of 10 squares of a1-d1-d4 triangle, other orientations are mapped there by Symmetry)
+ * and squares of other pieces (in order of material, same pieces ascending)
+ * one byte per position: 0 is draw (or invalid index), otherwise number of plies to mate + 1,
+ * odd number of plies means win of side to move, even its loss (0 plies is checkmate)
+ * file: int "PLTB", material (writeUTF), number of positions (long), values
+ */
+public class Tablebase {
+    /** returned by probe when side to move neither wins nor loses */
+    public static final int DRAW = -1;
+    /** the longest distance to mate (in plies) which can be stored */
+    public static final int MAX_PLIES = 253;
+    public static final String EXTENSION = ".plt";
+
+    private static final int MAGIC = 0x504C5442;
+    /** letters of PrimitiveBitBoard layers of one color */
+    private static final String LETTERS = "PNBRQK";
+    /** order of pieces of one side in material */
+    private static final String ORDER = "KQRBN";
+    private static final int[] TRIANGLE = {0, 1, 2, 3, 9, 10, 11, 18, 19, 27};
+    private static final int[] TRIANGLE_INDEX = new int[BitBoardLayer.BA];
+
+    static {
+        Arrays.fill(TRIANGLE_INDEX, -1);
+        for(int i = 0; i < TRIANGLE.length; ++i)
+            TRIANGLE_INDEX[TRIANGLE[i]] = i;
+    }
+
+    private final String material;
+    /** PrimitiveBitBoard layer of every piece in order of indexing (white pieces first) */
+    private final int[] pieces;
+    private final ByteBuffer values;
+
+    private Tablebase(String material, ByteBuffer values) {
+        this.material = material;
+        this.pieces = parse(material);
+        this.values = values;
+    }
+
+    public String getMaterial() { return material; }
+    public int getMen() { return pieces.length; }
+    public long size() { return size(pieces.length); }
+
+    private static long size(int men) {
+        return 2L * TRIANGLE.length << 6 * (men - 1);
+    }
+
+    /** @return PrimitiveBitBoard layers of pieces of material in order of indexing (stronger side is white) */
+    static int[] parse(String material) {
+        int second = material.indexOf('K', 1);
+        if(!material.startsWith("K") || second < 0 || material.indexOf('K', second + 1) >= 0)
+            throw new IllegalArgumentException("Material has to contain two kings: " + material);
+        int[] result = new int[material.length()];
+        for(int i = 0; i < material.length(); ++i) {
+            int type = LETTERS.indexOf(material.charAt(i));
+            if(type <= 0)
+                throw new IllegalArgumentException("Tablebases are only for pawnless material: " + material);
+            result[i] = type + (i < second ? 0 : PrimitiveBitBoard.PIECE_TYPES);
+        }
+        return result;
+    }
+
+    /** @return letters of pieces of given color (king first), counts are indexed by PrimitiveBitBoard layer */
+    static String side(int[] counts, Color color) {
+        StringBuilder sb = new StringBuilder();
+        for(char c: ORDER.toCharArray())
+            sb.append(String.valueOf(c).repeat(counts[PrimitiveBitBoard.layerIndex(color, PieceType.PAWN) + LETTERS.indexOf(c)]));
+        return sb.toString();
+    }
+
+    /** @return whether side a is stronger than side b or equal (more pieces, then stronger pieces in order) */
+    static boolean isStronger(String a, String b) {
+        if(a.length() != b.length())
+            return a.length() > b.length();
+        for(int i = 0; i < a.length(); ++i)
+            if(a.charAt(i) != b.charAt(i))
+                return ORDER.indexOf(a.charAt(i)) < ORDER.indexOf(b.charAt(i));
+        return true;
+    }
+
+    /** @return material written with stronger side first and pieces in order (e.g. "KKRQ" -> "KQKR") */
+    public static String canonical(String material) {
+        int[] counts = new int[PrimitiveBitBoard.LAYERS];
+        for(int li: parse(material))
+            counts[li]++;
+        String white = side(counts, Color.WHITE), black = side(counts, Color.BLACK);
+        return isStronger(white, black) ? white + black : black + white;
+    }
+
+    /**
+     * @return index of position (squares in order of pieces, identical pieces in any order), stronger side is white,
+     *         positions symmetric by a1-h8 diagonal with white king on it have the same (the smaller) index
+     */
+    int index(int[] squares, Color turn) {
+        int king = squares[0];
+        int symmetry = (king % BitBoardLayer.BS > 3 ? Symmetry.COLUMNS : 0) | (king / BitBoardLayer.BS > 3 ? Symmetry.ROWS : 0);
+        king = Symmetry.square(king, symmetry);
+        if(king / BitBoardLayer.BS > king % BitBoardLayer.BS)
+            return index(squares, turn, symmetry | Symmetry.DIAGONAL);
+        int result = index(squares, turn, symmetry);
+        if(king / BitBoardLayer.BS == king % BitBoardLayer.BS)
+            result = Math.min(result, index(squares, turn, symmetry | Symmetry.DIAGONAL));
+        return result;
+    }
+
+    private int index(int[] squares, Color turn, int symmetry) {
+        int[] canonical = new int[squares.length];
+        for(int k = 0; k < squares.length; ++k)
+            canonical[k] = Symmetry.square(squares[k], symmetry);
+        // identical pieces are sorted, so the index does not depend on their order
+        for(int k = 1; k < squares.length; ++k)
+            for(int j = k; j > 1 && pieces[j] == pieces[j - 1] && canonical[j] < canonical[j - 1]; --j) {
+                int tmp = canonical[j];
+                canonical[j] = canonical[j - 1];
+                canonical[j - 1] = tmp;
+            }
+        int result = turn.ordinal() * TRIANGLE.length + TRIANGLE_INDEX[canonical[0]];
+        for(int k = 1; k < squares.length; ++k)
+            result = result << 6 | canonical[k];
+        return result;
+    }
+
+    /** fills squares of position of given index, @return side to move */
+    Color decode(int index, int[] squares) {
+        for(int k = squares.length - 1; k > 0; --k) {
+            squares[k] = index & 63;
+            index >>>= 6;
+        }
+        squares[0] = TRIANGLE[index % TRIANGLE.length];
+        return Color.values()[index / TRIANGLE.length];
+    }
+
+    /**
+     * @param layers PrimitiveBitBoard layers of position of this material with stronger side white
+     * @return number of plies to mate (odd if side to move wins) or DRAW
+     */
+    public int probe(long[] layers, Color turn) {
+        long[] remaining = layers.clone();
+        int[] squares = new int[pieces.length];
+        for(int k = 0; k < pieces.length; ++k) {
+            squares[k] = BitBoardLayer.firstIndex(remaining[pieces[k]]);
+            remaining[pieces[k]] = BitBoardLayer.popFirst(remaining[pieces[k]]);
+        }
+        return value(values.get(index(squares, turn)));
+    }
+
+    /** @return the longest distance to mate (in plies) of positions with given side to move */
+    public int getLongest(Color turn) {
+        int half = (int)(size() / 2), result = 0;
+        for(int index = turn.ordinal() * half; index < (turn.ordinal() + 1) * half; ++index)
+            result = Math.max(result, value(values.get(index)));
+        return result;
+    }
+
+    private static int value(byte b) {
+        return b == 0 ? DRAW : (b & 0xFF) - 1;
+    }
+
+    public void write(Path file) throws IOException {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(material);
+            out.writeLong(size());
+            ByteBuffer copy = values.duplicate();
+            copy.clear();
+            byte[] chunk = new byte[1 << 16];
+            while(copy.hasRemaining()) {
+                int length = Math.min(chunk.length, copy.remaining());
+                copy.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+    }
+
+    /** @return table of given file, its values are memory-mapped */
+    public static Tablebase read(Path file) throws IOException {
+        String material;
+        long size, offset;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if(in.readInt() != MAGIC)
+                throw new IOException("Not a tablebase: " + file);
+            material = in.readUTF();
+            size = in.readLong();
+            offset = Integer.BYTES + Short.BYTES + material.getBytes("UTF-8").length + Long.BYTES;
+        }
+        if(size != size(parse(material).length))
+            throw new IOException("Wrong size of tablebase: " + file);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Tablebase(material, channel.map(FileChannel.MapMode.READ_ONLY, offset, size));
+        }
+    }
+
+    /**
+     * builds table of material by retrograde analysis, tables of materials reachable by captures have to be
+     * available in tables (dead materials are not needed)
+     */
+    public static Tablebase generate(String material, Tablebases tables) {
+        int men = parse(material).length;
+        if(men > Tablebases.MAX_MEN)
+            throw new IllegalArgumentException("Too many men for tablebase: " + material);
+        byte[] values = new byte[(int)size(men)];
+        Tablebase table = new Tablebase(canonical(material), ByteBuffer.wrap(values));
+        new Generator(table, values, tables).run();
+        return table;
+    }
+
+    /**
+     * positions are decided in order of their distance to mate: checkmates (and wins by captures into smaller tables)
+     * seed buckets of plies, every decided position is unmoved (see unmove) to its predecessors,
+     * predecessor of lost position wins one ply later, predecessor of won position loses if all its moves are
+     * already decided as wins of the opponent (verified by generating its moves)
+     */
+    private static class Generator {
+        /** invalid index or position which ends the game by draw, changed to 0 at the end */
+        private static final byte NONE = (byte)0xFF;
+
+        private final Tablebase table;
+        private final int[] pieces;
+        private final byte[] values;
+        private final Tablebases tables;
+        /** positions to be decided in given number of plies */
+        private final int[][] buckets = new int[MAX_PLIES + 1][];
+        private final int[] bucketSizes = new int[MAX_PLIES + 1];
+        /** squares of pieces of current position, -1 for captured */
+        private final int[] squares, work;
+        private final boolean mayBeDead;
+
+        Generator(Tablebase table, byte[] values, Tablebases tables) {
+            this.table = table;
+            this.pieces = table.pieces;
+            this.values = values;
+            this.tables = tables;
+            this.squares = new int[pieces.length];
+            this.work = new int[pieces.length];
+            // only two bishops of different colors can be dead in table which is not dead as a whole
+            this.mayBeDead = pieces.length == 4 && pieces[1] % PrimitiveBitBoard.PIECE_TYPES == 2 &&
+                    pieces[3] % PrimitiveBitBoard.PIECE_TYPES == 2;
+        }
+
+        void run() {
+            for(int index = 0; index < values.length; ++index)
+                initialize(index);
+            for(int plies = 0; plies <= MAX_PLIES; ++plies) {
+                for(int i = 0; i < bucketSizes[plies]; ++i) {
+                    int index = buckets[plies][i];
+                    if(values[index] != 0)
+                        continue;
+                    values[index] = (byte)(plies + 1);
+                    unmove(index, plies);
+                }
+                buckets[plies] = null;
+            }
+            for(int index = 0; index < values.length; ++index)
+                if(values[index] == NONE)
+                    values[index] = 0;
+        }
+
+        private void add(int plies, int index) {
+            if(plies > MAX_PLIES)
+                throw new IllegalStateException("Mate too long for tablebase " + table.material);
+            if(buckets[plies] == null)
+                buckets[plies] = new int[16];
+            else if(bucketSizes[plies] == buckets[plies].length)
+                buckets[plies] = Arrays.copyOf(buckets[plies], bucketSizes[plies] * 2);
+            buckets[plies][bucketSizes[plies]++] = index;
+        }
+
+        private static Color color(int li) {
+            return li < PrimitiveBitBoard.PIECE_TYPES ? Color.WHITE : Color.BLACK;
+        }
+
+        private static PieceType type(int li) {
+            return PieceType.values()[li % PrimitiveBitBoard.PIECE_TYPES + PieceType.PAWN.ordinal()];
+        }
+
+        private static long occupied(int[] squares) {
+            long result = 0;
+            for(int square: squares)
+                if(square >= 0)
+                    result |= BitBoardLayer.bit(square);
+            return result;
+        }
+
+        private long occupied(int[] squares, Color color) {
+            long result = 0;
+            for(int k = 0; k < squares.length; ++k)
+                if(squares[k] >= 0 && color(pieces[k]) == color)
+                    result |= BitBoardLayer.bit(squares[k]);
+            return result;
+        }
+
+        private boolean isCheck(int[] squares, Color color) {
+            int king = squares[color == Color.WHITE ? 0 : firstBlack()];
+            long occupied = occupied(squares);
+            for(int k = 0; k < squares.length; ++k)
+                if(squares[k] >= 0 && color(pieces[k]) != color &&
+                        BitBoardLayer.isCell(PrimitiveBitBoard.getAttacks(type(pieces[k]), color(pieces[k]), squares[k], occupied), king))
+                    return true;
+            return false;
+        }
+
+        private int firstBlack() {
+            int k = 0;
+            while(color(pieces[k]) == Color.WHITE)
+                ++k;
+            return k;
+        }
+
+        private int pieceAt(int[] squares, int square) {
+            for(int k = 0; k < squares.length; ++k)
+                if(squares[k] == square)
+                    return k;
+            return -1;
+        }
+
+        /** @return value of position after capture (smaller material) from tables */
+        private int probeCaptured(int[] squares, Color turn) {
+            long[] layers = new long[PrimitiveBitBoard.LAYERS];
+            for(int k = 0; k < squares.length; ++k)
+                if(squares[k] >= 0)
+                    layers[pieces[k]] |= BitBoardLayer.bit(squares[k]);
+            int result = tables.probe(layers, turn);
+            if(result == Tablebases.MISSING)
+                throw new IllegalStateException("Tablebase needed by " + table.material + " is missing");
+            return result;
+        }
+
+        /** @return whether position has only two bishops standing on squares of the same color */
+        private boolean isDead(int[] squares) {
+            return mayBeDead && ((squares[1] ^ squares[1] >> 3) & 1) == ((squares[3] ^ squares[3] >> 3) & 1);
+        }
+
+        /** marks invalid index, draws ending the game and seeds buckets by checkmates and results of captures */
+        private void initialize(int index) {
+            Color turn = table.decode(index, squares);
+            if(Long.bitCount(occupied(squares)) != squares.length ||
+                    table.index(squares, turn) != index || isCheck(squares, turn.opposite()) || isDead(squares)) {
+                values[index] = NONE;
+                return;
+            }
+            int legal = 0, quiet = 0, win = Integer.MAX_VALUE, loss = 0;
+            boolean escape = false;
+            long own = occupied(squares, turn), occupied = occupied(squares);
+            for(int k = 0; k < squares.length; ++k) {
+                if(color(pieces[k]) != turn)
+                    continue;
+                int from = squares[k];
+                long targets = PrimitiveBitBoard.getAttacks(type(pieces[k]), turn, from, occupied) & ~own;
+                for(; targets != 0; targets = BitBoardLayer.popFirst(targets)) {
+                    int to = BitBoardLayer.firstIndex(targets);
+                    int captured = pieceAt(squares, to);
+                    squares[k] = to;
+                    if(captured >= 0)
+                        squares[captured] = -1;
+                    if(!isCheck(squares, turn)) {
+                        ++legal;
+                        if(captured < 0)
+                            ++quiet;
+                        else {
+                            int value = probeCaptured(squares, turn.opposite());
+                            if(value == DRAW)
+                                escape = true;
+                            else if(value % 2 == 0)
+                                win = Math.min(win, value + 1);
+                            else
+                                loss = Math.max(loss, value + 1);
+                        }
+                    }
+                    squares[k] = from;
+                    if(captured >= 0)
+                        squares[captured] = to;
+                }
+            }
+            if(legal == 0) {
+                if(isCheck(squares, turn))
+                    add(0, index);
+                else
+                    values[index] = NONE; // stalemate
+            } else if(win != Integer.MAX_VALUE)
+                add(win, index);
+            else if(quiet == 0 && !escape)
+                add(loss, index);
+        }
+
+        /** decided position is unmoved to its predecessors (moves of side which is not on turn, no captures) */
+        private void unmove(int index, int plies) {
+            Color turn = table.decode(index, squares);
+            Color mover = turn.opposite();
+            long occupied = occupied(squares);
+            for(int k = 0; k < squares.length; ++k) {
+                if(color(pieces[k]) != mover)
+                    continue;
+                int to = squares[k];
+                // pawnless pieces move back the same way they move forward
+                long origins = PrimitiveBitBoard.getAttacks(type(pieces[k]), mover, to, occupied) & ~occupied;
+                for(; origins != 0; origins = BitBoardLayer.popFirst(origins)) {
+                    squares[k] = BitBoardLayer.firstIndex(origins);
+                    if(!isCheck(squares, turn)) {
+                        int predecessor = table.index(squares, mover);
+                        if(values[predecessor] == 0) {
+                            if(plies % 2 == 0)
+                                add(plies + 1, predecessor);
+                            else {
+                                int loss = verifyLoss(predecessor);
+                                if(loss >= 0)
+                                    add(loss, predecessor);
+                            }
+                        }
+                    }
+                }
+                squares[k] = to;
+            }
+        }
+
+        /** @return plies to mate of position which loses (all its moves lead to decided wins of opponent), otherwise -1 */
+        private int verifyLoss(int index) {
+            Color turn = table.decode(index, work);
+            long own = occupied(work, turn), occupied = occupied(work);
+            int result = -1;
+            for(int k = 0; k < work.length; ++k) {
+                if(color(pieces[k]) != turn)
+                    continue;
+                int from = work[k];
+                long targets = PrimitiveBitBoard.getAttacks(type(pieces[k]), turn, from, occupied) & ~own;
+                for(; targets != 0; targets = BitBoardLayer.popFirst(targets)) {
+                    int to = BitBoardLayer.firstIndex(targets);
+                    int captured = pieceAt(work, to);
+                    work[k] = to;
+                    if(captured >= 0)
+                        work[captured] = -1;
+                    int value = Integer.MIN_VALUE; // illegal move
+                    if(!isCheck(work, turn) && captured >= 0)
+                        value = probeCaptured(work, turn.opposite());
+                    else if(!isCheck(work, turn)) {
+                        byte b = values[table.index(work, turn.opposite())];
+                        value = b == NONE ? DRAW : Tablebase.value(b);
+                    }
+                    work[k] = from;
+                    if(captured >= 0)
+                        work[captured] = to;
+                    if(value == Integer.MIN_VALUE)
+                        continue;
+                    if(value == DRAW || value % 2 == 0)
+                        return -1;
+                    result = Math.max(result, value + 1);
+                }
+            }
+            return result;
+        }
+    }
+}
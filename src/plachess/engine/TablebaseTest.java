@@ -0,0 +1,85 @@
+package plachess.engine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import plachess.solver.DirectmateSolver;
+
+/** testing of generated tablebases against known longest mates and of solving with them against plain search */
+public class TablebaseTest {
+    /** materials with the longest mates (in plies) with white and with black to move */
+    private static final Object[][] LONGEST = {
+            {"KQK", 19, 20},
+            {"KRK", 31, 32},
+            {"KBNK", 65, 66}};
+
+    /** direct mates with number of moves, black is the stronger side in some of them */
+    private static final Object[][] PROBLEMS = {
+            {"k7/8/1K6/8/8/8/8/7Q w - - 0 1", 2},
+            {"7q/8/8/8/8/1k6/8/K7 b - - 0 1", 2},
+            {"1k6/8/1K6/8/8/8/8/7R w - - 0 1", 2},
+            {"7r/8/8/8/8/1k6/8/1K6 b - - 0 1", 3},
+            {"6k1/5r2/6K1/8/8/8/8/7Q w - - 0 1", 3},
+            {"3k4/8/3K4/8/8/8/8/r5RQ w - - 0 1", 3},
+            {"7k/8/5K2/8/8/8/8/B5N1 w - - 0 1", 4},
+            {"b5n1/8/8/8/8/5k2/8/7K b - - 0 1", 4}};
+
+    private static Tablebases generate() {
+        try {
+            Path directory = Files.createTempDirectory("plachess-tablebases");
+            directory.toFile().deleteOnExit();
+            Tablebases tablebases = new Tablebases(directory);
+            for(Object[] longest: LONGEST) {
+                tablebases.generate((String)longest[0]);
+                directory.resolve(longest[0] + Tablebase.EXTENSION).toFile().deleteOnExit();
+            }
+            return tablebases;
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static boolean testLongest(Tablebases tablebases) {
+        for(Object[] longest: LONGEST) {
+            Tablebase table = tablebases.get((String)longest[0]);
+            if(table.getLongest(Color.WHITE) != (int)longest[1] || table.getLongest(Color.BLACK) != (int)longest[2]) {
+                System.out.printf("WA: %s longest %d/%d plies\n", longest[0],
+                        table.getLongest(Color.WHITE), table.getLongest(Color.BLACK));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> solve(String xfen, int n, Tablebases tablebases) {
+        BoardPosition bp = MutableBoardPosition.fromXFEN(xfen);
+        DirectmateSolver solver = new DirectmateSolver(bp, n, DirectmateSolver.DEFAULT_TABLE_LOG2, tablebases);
+        solver.solve();
+        List<String> result = new ArrayList<>();
+        for(int i = 0; i < solver.getNumOfSolutions(); ++i)
+            result.add(solver.getSolutions().get(i).getBoard().toXFEN() + " " + solver.getNumsOfMoves().get(i));
+        return result;
+    }
+
+    public static boolean testDirectmates(Tablebases tablebases) {
+        for(Object[] problem: PROBLEMS) {
+            List<String> searched = solve((String)problem[0], (int)problem[1], null);
+            List<String> probed = solve((String)problem[0], (int)problem[1], tablebases);
+            if(!searched.equals(probed)) {
+                System.out.printf("WA: %s # %d\nsearch: %s\ntablebases: %s\n", problem[0], problem[1], searched, probed);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void test() {
+        Tablebases tablebases = generate();
+        testLongest(tablebases);
+        testDirectmates(tablebases);
+    }
+}
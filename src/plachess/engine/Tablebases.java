@@ -0,0 +1,164 @@
+package plachess.engine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * tablebases (see Tablebase) stored in one directory, each table is memory-mapped when it is needed for the first time
+ * default tablebases used by solvers are given by system property plachess.tablebases (directory) or setDefault
+ * usage: Tablebases directory material...   (generates tables of given materials and of all materials they need)
+ */
+public class Tablebases {
+    /** returned by probe when position is not covered by any table */
+    public static final int MISSING = -2;
+    public static final int MAX_MEN = 5;
+
+    private static volatile Tablebases defaultTablebases =
+            System.getProperty("plachess.tablebases") == null ? null : new Tablebases(Paths.get(System.getProperty("plachess.tablebases")));
+
+    private final Path directory;
+    /** loaded tables by material, empty for materials without table file */
+    private final ConcurrentHashMap<String, Optional<Tablebase>> tables = new ConcurrentHashMap<>();
+
+    public Tablebases(Path directory) {
+        this.directory = directory;
+    }
+
+    /** @return default tablebases or null if there are none */
+    public static Tablebases getDefault() { return defaultTablebases; }
+    public static void setDefault(Tablebases tablebases) { defaultTablebases = tablebases; }
+
+    /** @return table of material or null if it is not in directory */
+    public Tablebase get(String material) {
+        return tables.computeIfAbsent(Tablebase.canonical(material), m -> {
+            Path file = directory.resolve(m + Tablebase.EXTENSION);
+            if(!Files.exists(file))
+                return Optional.empty();
+            try {
+                return Optional.of(Tablebase.read(file));
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).orElse(null);
+    }
+
+    /**
+     * @return number of plies to mate (odd if side to move wins), Tablebase.DRAW,
+     *         or MISSING for positions with castling rights, pawns, too many men or without table
+     */
+    public int probe(BoardPosition bp) {
+        Board board = bp.getBoard();
+        if(board instanceof PrimitiveBitBoard && Long.bitCount(((PrimitiveBitBoard)board).getOccupied()) > MAX_MEN)
+            return MISSING;
+        for(Color color: Color.values())
+            if(bp.canCastle(color, PieceType.KING) || bp.canCastle(color, PieceType.QUEEN))
+                return MISSING;
+        long[] layers = new long[PrimitiveBitBoard.LAYERS];
+        if(board instanceof PrimitiveBitBoard) {
+            for(int li = 0; li < layers.length; ++li)
+                layers[li] = ((PrimitiveBitBoard)board).getLayer(li);
+        } else {
+            for(Piece piece: board.getAllPieces())
+                layers[PrimitiveBitBoard.layerIndex(piece.color, piece.type)] |= BitBoardLayer.bit(piece.pos.x, piece.pos.y);
+        }
+        return probe(layers, bp.getTurnColor());
+    }
+
+    /** @param layers PrimitiveBitBoard piece layers of position, same as probe(BoardPosition) */
+    public int probe(long[] layers, Color turn) {
+        int[] counts = new int[PrimitiveBitBoard.LAYERS];
+        int men = 0;
+        for(int li = 0; li < layers.length; ++li) {
+            counts[li] = Long.bitCount(layers[li]);
+            men += counts[li];
+        }
+        int pawns = counts[PrimitiveBitBoard.layerIndex(Color.WHITE, PieceType.PAWN)] +
+                counts[PrimitiveBitBoard.layerIndex(Color.BLACK, PieceType.PAWN)];
+        if(pawns > 0 || men > MAX_MEN)
+            return MISSING;
+        if(isDead(layers))
+            return Tablebase.DRAW;
+        String white = Tablebase.side(counts, Color.WHITE), black = Tablebase.side(counts, Color.BLACK);
+        boolean flip = !Tablebase.isStronger(white, black);
+        Tablebase table = get(flip ? black + white : white + black);
+        if(table == null)
+            return MISSING;
+        if(!flip)
+            return table.probe(layers, turn);
+        // colors are swapped and rows reversed, so the stronger side is white
+        long[] flipped = new long[layers.length];
+        for(int li = 0; li < layers.length; ++li)
+            flipped[(li + PrimitiveBitBoard.PIECE_TYPES) % layers.length] = BitBoardLayer.flipHorizontal(layers[li]);
+        return table.probe(flipped, turn.opposite());
+    }
+
+    private static final long DARK_SQUARES = 0xAA55AA55AA55AA55L;
+
+    /** @return whether pawnless position cannot end by checkmate (same rules as BoardPosition.isDeadPosition) */
+    static boolean isDead(long[] layers) {
+        long majors = 0, knights = 0;
+        for(Color color: Color.values()) {
+            majors |= layers[PrimitiveBitBoard.layerIndex(color, PieceType.ROOK)] |
+                    layers[PrimitiveBitBoard.layerIndex(color, PieceType.QUEEN)];
+            knights |= layers[PrimitiveBitBoard.layerIndex(color, PieceType.KNIGHT)];
+        }
+        long bW = layers[PrimitiveBitBoard.layerIndex(Color.WHITE, PieceType.BISHOP)];
+        long bB = layers[PrimitiveBitBoard.layerIndex(Color.BLACK, PieceType.BISHOP)];
+        int minors = Long.bitCount(knights) + Long.bitCount(bW) + Long.bitCount(bB);
+        if(majors != 0 || minors > 2)
+            return false;
+        if(minors < 2)
+            return true;
+        if(Long.bitCount(bW) != 1 || Long.bitCount(bB) != 1)
+            return false;
+        return ((bB & DARK_SQUARES) == 0) == ((bW & DARK_SQUARES) == 0);
+    }
+
+    /** @return whether material (e.g. KBK) cannot end by checkmate in any position, so it needs no table */
+    static boolean isDeadMaterial(String material) {
+        int majors = 0, minors = 0;
+        for(char c: material.toCharArray()) {
+            if(c == 'Q' || c == 'R')
+                ++majors;
+            else if(c == 'B' || c == 'N')
+                ++minors;
+        }
+        return majors == 0 && minors < 2;
+    }
+
+    /** generates table of material and all tables it needs (materials after captures), which are not in directory */
+    public Tablebase generate(String material) throws IOException {
+        material = Tablebase.canonical(material);
+        Tablebase table = get(material);
+        if(table != null)
+            return table;
+        for(int i = 1; i < material.length(); ++i) {
+            String captured = material.substring(0, i) + material.substring(i + 1);
+            if(material.charAt(i) != 'K' && !isDeadMaterial(captured))
+                generate(captured);
+        }
+        table = Tablebase.generate(material, this);
+        Files.createDirectories(directory);
+        table.write(directory.resolve(material + Tablebase.EXTENSION));
+        tables.put(material, Optional.of(table));
+        return table;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2) {
+            System.out.println("usage: Tablebases directory material...");
+            return;
+        }
+        Tablebases tablebases = new Tablebases(Paths.get(args[0]));
+        for(int i = 1; i < args.length; ++i) {
+            long start = System.currentTimeMillis();
+            Tablebase table = tablebases.generate(args[i]);
+            System.out.printf("%s %d positions [%dms]%n", table.getMaterial(), table.size(), System.currentTimeMillis() - start);
+        }
+    }
+}
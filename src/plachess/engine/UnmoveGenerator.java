@@ -0,0 +1,260 @@
+package plachess.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * generates predecessors of position: positions from which a legal move of color not on turn (mover) leads to it
+ * un-moves are retractions of simple moves, uncaptures (optional), un-promotions, un-castling (castling rights
+ * are restored) and un-en-passant, rights which the retracted move could have lost are restored in all combinations
+ * enpassant of predecessor is set in all combinations where the opponent could have just made a double step
+ * clocks do not restrict un-moves: half-move clock of predecessor is decreased by one or 0 after pawn moves and captures,
+ * numbers of uncaptured pieces are bounded only by 16 men and 8 pawns of color
+ */
+public class UnmoveGenerator {
+    /** types of pieces which can be uncaptured */
+    private static final PieceType[] UNCAPTURED = {
+            PieceType.PAWN, PieceType.KNIGHT, PieceType.BISHOP, PieceType.ROOK, PieceType.QUEEN};
+    private static final int MAX_MEN = 16;
+    private static final int MAX_PAWNS = 8;
+
+    private final BoardPosition bp;
+    private final Board board;
+    /** color which made the retracted move, victim is color on turn */
+    private final Color mover, victim;
+    private final long occupied;
+    private final boolean canUncapture, canUncapturePawn;
+    private ArrayList<BoardPosition> result;
+
+    /** @param uncaptures whether pieces of color on turn can be uncaptured (otherwise material stays the same) */
+    public UnmoveGenerator(BoardPosition bp, boolean uncaptures) {
+        this.bp = bp;
+        this.board = bp.getBoard();
+        this.victim = bp.getTurnColor();
+        this.mover = victim.opposite();
+        long occupied = 0;
+        int men = 0, pawns = 0;
+        for(Piece piece: board.getAllPieces()) {
+            occupied |= bit(piece.pos);
+            if(piece.color == victim) {
+                ++men;
+                if(piece.type == PieceType.PAWN)
+                    ++pawns;
+            }
+        }
+        this.occupied = occupied;
+        this.canUncapture = uncaptures && men < MAX_MEN;
+        this.canUncapturePawn = canUncapture && pawns < MAX_PAWNS;
+    }
+
+    public UnmoveGenerator(BoardPosition bp) {
+        this(bp, true);
+    }
+
+    private static long bit(Position pos) {
+        return BitBoardLayer.bit(pos.x, pos.y);
+    }
+
+    private boolean isEmpty(Position pos) {
+        return Rules.isPositionValid(pos) && (occupied & bit(pos)) == 0;
+    }
+
+    /** @return all predecessors of position (no predecessor exists if mover is in check or kings are not valid) */
+    public List<BoardPosition> generate() {
+        result = new ArrayList<>();
+        if(!bp.isKingValid() || bp.isCheck(mover))
+            return result;
+        Position enpassant = bp.getEnpassant();
+        if(enpassant != null) { // the only possible move is double step of pawn
+            Position posTo = enpassant.add(0, Rules.getColorDirection(mover));
+            Position posFrom = enpassant.sub(0, Rules.getColorDirection(mover));
+            Piece pawn = board.getPiece(posTo);
+            if(!Piece.isEmpty(pawn) && pawn.color == mover && pawn.type == PieceType.PAWN &&
+                    isEmpty(enpassant) && isEmpty(posFrom))
+                add(unmove(pawn, posFrom), bp.getCastling(), null, true);
+            return result;
+        }
+        for(Piece piece: board.getAllPieces()) {
+            if(piece.color != mover)
+                continue;
+            if(piece.type == PieceType.PAWN)
+                unmovePawn(piece);
+            else
+                unmovePiece(piece);
+        }
+        uncastle(PieceType.KING);
+        uncastle(PieceType.QUEEN);
+        return result;
+    }
+
+    private static List<Pair<Position, Piece>> unmove(Piece piece, Position posFrom) {
+        return new ArrayList<>(Arrays.asList(
+                new Pair<>(piece.pos, Piece.empty()),
+                new Pair<>(posFrom, piece.setPos(posFrom))));
+    }
+
+    /**
+     * adds retraction of piece to square of before (piece as it was before promotion)
+     * @param quiet whether move could be made without capture
+     * @param capture whether move could be capture (all uncaptures are added)
+     */
+    private void unmove(Piece piece, Piece before, boolean quiet, boolean capture) {
+        Position posFrom = before.pos;
+        List<Pair<Position, Piece>> work = unmove(piece, posFrom);
+        work.set(1, new Pair<>(posFrom, before));
+        if(quiet)
+            addRestored(work, false, before.type == PieceType.PAWN);
+        if(!capture || !canUncapture)
+            return;
+        for(PieceType type: UNCAPTURED) {
+            if(type == PieceType.PAWN && (!canUncapturePawn || piece.pos.y == Rules.ROW_WHITE || piece.pos.y == Rules.ROW_BLACK))
+                continue;
+            List<Pair<Position, Piece>> uncapture = new ArrayList<>(work);
+            uncapture.set(0, new Pair<>(piece.pos, new Piece(piece.pos, victim, type)));
+            addRestored(uncapture, type == PieceType.ROOK, true);
+        }
+    }
+
+    private void unmovePiece(Piece piece) {
+        int home = Rules.getColorHomeRow(mover);
+        // piece which has not moved yet keeps castling rights
+        if(piece.type == PieceType.KING &&
+                (bp.canCastle(mover, PieceType.KING) || bp.canCastle(mover, PieceType.QUEEN)))
+            return;
+        if(piece.type == PieceType.ROOK && piece.pos.y == home &&
+                ((piece.pos.x == Rules.BORDER_KING && bp.canCastle(mover, PieceType.KING)) ||
+                (piece.pos.x == Rules.BORDER_QUEEN && bp.canCastle(mover, PieceType.QUEEN))))
+            return;
+        // pieces move back the same way they move forward
+        long origins = ArrayBoardImplementation.getAttacks(board, piece) & ~occupied;
+        for(; origins != 0; origins = BitBoardLayer.popFirst(origins)) {
+            int index = BitBoardLayer.firstIndex(origins);
+            unmove(piece, piece.setPos(index % BitBoardLayer.BS, index / BitBoardLayer.BS), true, true);
+        }
+        // un-promotion
+        if(piece.type == PieceType.KING || piece.pos.y != Rules.getColorHomeRow(victim))
+            return;
+        int dir = Rules.getColorDirection(mover);
+        for(int x = -1; x <= 1; ++x) {
+            Position posFrom = piece.pos.sub(x, dir);
+            if(isEmpty(posFrom))
+                unmove(piece, new Piece(posFrom, mover, PieceType.PAWN), x == 0, x != 0);
+        }
+    }
+
+    private void unmovePawn(Piece pawn) {
+        int dir = Rules.getColorDirection(mover);
+        int home = Rules.getColorHomeRow(mover);
+        Position posFrom = pawn.pos.sub(0, dir);
+        if(posFrom.y != home && isEmpty(posFrom))
+            unmove(pawn, pawn.setPos(posFrom), true, false);
+        // double steps are retracted only from positions with enpassant (see generate)
+        for(int x = -1; x <= 1; x += 2) {
+            posFrom = pawn.pos.sub(x, dir);
+            if(posFrom.y == home || !isEmpty(posFrom))
+                continue;
+            unmove(pawn, pawn.setPos(posFrom), false, true);
+            // un-en-passant: captured pawn is put back behind, it has just made double step
+            Position posCaptured = pawn.pos.sub(0, dir), posDouble = pawn.pos.add(0, dir);
+            if(canUncapturePawn && pawn.pos.y == home + 5*dir && isEmpty(posCaptured) && isEmpty(posDouble)) {
+                List<Pair<Position, Piece>> work = unmove(pawn, posFrom);
+                work.add(new Pair<>(posCaptured, new Piece(posCaptured, victim, PieceType.PAWN)));
+                add(work, bp.getCastling(), pawn.pos, true);
+            }
+        }
+    }
+
+    private void uncastle(PieceType side) {
+        if(bp.canCastle(mover, PieceType.KING) || bp.canCastle(mover, PieceType.QUEEN))
+            return;
+        int home = Rules.getColorHomeRow(mover);
+        int dir = side == PieceType.KING ? 1 : -1;
+        Position posKing = Position.getNew(Rules.COL_KING, home);
+        Position posRook = Position.getNew(side == PieceType.KING ? Rules.BORDER_KING : Rules.BORDER_QUEEN, home);
+        Piece king = board.getPiece(posKing.add(2*dir, 0)), rook = board.getPiece(posKing.add(dir, 0));
+        if(Piece.isEmpty(king) || king.color != mover || king.type != PieceType.KING ||
+                Piece.isEmpty(rook) || rook.color != mover || rook.type != PieceType.ROOK ||
+                !isEmpty(posKing) || !isEmpty(posRook) || (side == PieceType.QUEEN && !isEmpty(posRook.add(1, 0))))
+            return;
+        List<Pair<Position, Piece>> work = Arrays.asList(
+                new Pair<>(king.pos, Piece.empty()),
+                new Pair<>(rook.pos, Piece.empty()),
+                new Pair<>(posKing, king.setPos(posKing)),
+                new Pair<>(posRook, rook.setPos(posRook)));
+        // king did not castle out of check or through attacked square
+        long attacked = board.set(work).attackedSquares(victim);
+        if((attacked & (bit(posKing) | bit(rook.pos))) != 0)
+            return;
+        boolean[] castling = bp.getCastling();
+        castling[BoardPosition.castlingArrayIndex(mover, side)] = true;
+        add(work, castling, null, false);
+        PieceType other = side == PieceType.KING ? PieceType.QUEEN : PieceType.KING;
+        if(hasRook(mover, other)) {
+            castling = castling.clone();
+            castling[BoardPosition.castlingArrayIndex(mover, other)] = true;
+            add(work, castling, null, false);
+        }
+    }
+
+    /** @return whether rook of color stands on its initial square of side in current position */
+    private boolean hasRook(Color color, PieceType side) {
+        Piece rook = board.getPiece(side == PieceType.KING ? Rules.BORDER_KING : Rules.BORDER_QUEEN, Rules.getColorHomeRow(color));
+        return !Piece.isEmpty(rook) && rook.color == color && rook.type == PieceType.ROOK;
+    }
+
+    /**
+     * adds predecessor with current castling rights and with all combinations of rights lost by the retracted move
+     * (mover's king or rook returns to initial square, victim's rook is uncaptured on its initial square)
+     */
+    private void addRestored(List<Pair<Position, Piece>> work, boolean rookUncaptured, boolean reset) {
+        ArrayList<Integer> restorable = new ArrayList<>();
+        Piece moved = work.get(1).scnd;
+        int home = Rules.getColorHomeRow(mover);
+        boolean kingHome = moved.type == PieceType.KING ? moved.pos.equals(Rules.COL_KING, home) : isKing(mover, Rules.COL_KING, home);
+        for(PieceType side: new PieceType[]{PieceType.KING, PieceType.QUEEN}) {
+            int border = side == PieceType.KING ? Rules.BORDER_KING : Rules.BORDER_QUEEN;
+            if(kingHome && moved.type == PieceType.KING && hasRook(mover, side))
+                restorable.add(BoardPosition.castlingArrayIndex(mover, side));
+            if(kingHome && moved.type == PieceType.ROOK && moved.pos.equals(border, home))
+                restorable.add(BoardPosition.castlingArrayIndex(mover, side));
+            if(rookUncaptured && work.get(0).frst.equals(border, Rules.getColorHomeRow(victim)) &&
+                    isKing(victim, Rules.COL_KING, Rules.getColorHomeRow(victim)))
+                restorable.add(BoardPosition.castlingArrayIndex(victim, side));
+        }
+        for(int subset = 0; subset < 1 << restorable.size(); ++subset) {
+            boolean[] castling = bp.getCastling();
+            for(int k = 0; k < restorable.size(); ++k)
+                if((subset >> k & 1) != 0)
+                    castling[restorable.get(k)] = true;
+            add(work, castling, null, reset);
+        }
+    }
+
+    private boolean isKing(Color color, int x, int y) {
+        Piece piece = board.getPiece(x, y);
+        return !Piece.isEmpty(piece) && piece.color == color && piece.type == PieceType.KING;
+    }
+
+    /** adds predecessor if victim is not in check there, also with enpassant of victim's possible double steps */
+    private void add(List<Pair<Position, Piece>> work, boolean[] castling, Position enpassant, boolean reset) {
+        Board before = board.set(work);
+        int fullMoveClock = mover == Rules.FIRST_TURN ? bp.getFullMoveClock() : Math.max(1, bp.getFullMoveClock() - 1);
+        int halfMoveClock = reset ? 0 : Math.max(0, bp.getHalfMoveClock() - 1);
+        BoardPosition previous = bp.create(before, mover, castling, enpassant, halfMoveClock, fullMoveClock);
+        if(previous.isCheck(victim))
+            return;
+        result.add(previous);
+        if(enpassant != null)
+            return;
+        int dir = Rules.getColorDirection(victim), home = Rules.getColorHomeRow(victim);
+        for(int x = 0; x < Rules.BOARD_SIZE; ++x) {
+            Piece pawn = before.getPiece(x, home + 3*dir);
+            if(Piece.isEmpty(pawn) || pawn.color != victim || pawn.type != PieceType.PAWN ||
+                    before.isOccupied(x, home + 2*dir) || before.isOccupied(x, home + dir))
+                continue;
+            Position skipped = Position.getNew(x, home + 2*dir);
+            result.add(bp.create(before, mover, castling, skipped, 0, fullMoveClock));
+        }
+    }
+}
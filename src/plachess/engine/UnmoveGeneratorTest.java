@@ -0,0 +1,114 @@
+package plachess.engine;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** testing of UnmoveGenerator against forward move generation */
+public class UnmoveGeneratorTest {
+    private static BoardPosition fromXFEN(String xfen) {
+        return BoardPosition.fromXFEN(xfen, new PrimitiveBitBoard());
+    }
+
+    private static Set<Long> hashKeys(List<BoardPosition> positions) {
+        Set<Long> result = new HashSet<>();
+        for(BoardPosition bp: positions)
+            result.add(bp.getHashKey());
+        return result;
+    }
+
+    /**
+     * every child of positions reachable from perft positions in fewer than depth moves lists its parent
+     * among predecessors and every predecessor reaches the child by a legal move (positions compared by hash key)
+     */
+    public static boolean testRoundTrip(int depth) {
+        for(String xfen: Perft.getTestPositions())
+            if(!testRoundTrip(fromXFEN(xfen), depth))
+                return false;
+        return true;
+    }
+
+    private static boolean testRoundTrip(BoardPosition parent, int depth) {
+        if(depth == 0)
+            return true;
+        for(BoardPosition child: parent.getNextPositions()) {
+            List<BoardPosition> previous = child.getPreviousPositions();
+            if(!hashKeys(previous).contains(parent.getHashKey())) {
+                System.out.printf("WA: parent of %s is missing\n%s", child.getBoard().toXFEN(), parent.getBoard().toXFEN());
+                return false;
+            }
+            for(BoardPosition predecessor: previous) {
+                if(!hashKeys(predecessor.getNextPositions()).contains(child.getHashKey())) {
+                    System.out.printf("WA: predecessor %s does not reach %s\n",
+                            predecessor.getBoard().toXFEN(), child.getBoard().toXFEN());
+                    return false;
+                }
+            }
+            if(!testRoundTrip(child, depth - 1))
+                return false;
+        }
+        return true;
+    }
+
+    /** @return whether predecessors of xfen contain all wanted positions and none of unwanted ones */
+    private static boolean testPredecessors(String xfen, boolean uncaptures, String[] wanted, String[] unwanted) {
+        Set<Long> previous = hashKeys(new UnmoveGenerator(fromXFEN(xfen), uncaptures).generate());
+        for(String w: wanted) {
+            if(!previous.contains(fromXFEN(w).getHashKey())) {
+                System.out.printf("WA: predecessor %s of %s is missing\n", w, xfen);
+                return false;
+            }
+        }
+        for(String u: unwanted) {
+            if(previous.contains(fromXFEN(u).getHashKey())) {
+                System.out.printf("WA: %s is not predecessor of %s\n", u, xfen);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** castling restores right of its side, right of the other side is restored optionally */
+    public static boolean testUncastling() {
+        return testPredecessors("r3k2r/8/8/8/8/8/8/R4RK1 b kq - 1 1", true,
+                new String[]{"r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1", "r3k2r/8/8/8/8/8/8/R3K2R w Kkq - 0 1"},
+                new String[]{"r3k2r/8/8/8/8/8/8/R3K2R w kq - 0 1", "r3k2r/8/8/8/8/8/8/R3K2R w Qkq - 0 1"});
+    }
+
+    /** captured pawn has just made double step, so enpassant is set */
+    public static boolean testUnenpassant() {
+        return testPredecessors("4k3/8/3P4/8/8/8/8/4K3 b - - 0 1", true,
+                new String[]{"4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 1"},
+                new String[]{"4k3/8/8/3pP3/8/8/8/4K3 w - - 0 1", "4k3/8/8/2pP4/8/8/8/4K3 w - c6 0 1"});
+    }
+
+    /** rook uncaptured on its initial square may have had castling right */
+    public static boolean testUnpromotion() {
+        return testPredecessors("4k2Q/8/8/8/8/8/8/4K3 b - - 0 1", true,
+                new String[]{"4k2r/6P1/8/8/8/8/8/4K3 w k - 0 1", "4k2r/6P1/8/8/8/8/8/4K3 w - - 0 1",
+                        "4k3/7P/8/8/8/8/8/4K3 w - - 0 1"},
+                new String[]{"4k2r/7P/8/8/8/8/8/4K3 w - - 0 1"});
+    }
+
+    /** without uncaptures material of all predecessors is the same */
+    public static boolean testWithoutUncaptures() {
+        String xfen = "4k2Q/8/8/8/8/8/8/4K3 b - - 0 1";
+        for(BoardPosition bp: new UnmoveGenerator(fromXFEN(xfen), false).generate()) {
+            if(bp.getBoard().getAllPieces().size() != 3) {
+                System.out.printf("WA: %s has uncaptured piece\n", bp.getBoard().toXFEN());
+                return false;
+            }
+        }
+        return testPredecessors(xfen, false,
+                new String[]{"4k3/7P/8/8/8/8/8/4K3 w - - 0 1", "4k3/8/8/8/8/8/8/4K2Q w - - 0 1"},
+                new String[]{"4k2r/6P1/8/8/8/8/8/4K3 w - - 0 1"});
+    }
+
+    public static void test() {
+        testRoundTrip(2);
+        testUncastling();
+        testUnenpassant();
+        testUnpromotion();
+        testWithoutUncaptures();
+    }
+}
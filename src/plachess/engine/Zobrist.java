@@ -0,0 +1,72 @@
+package plachess.engine;
+
+import java.util.Random;
+
+/**
+ * 64-bit Zobrist keys of positions
+ * key is XOR of random numbers of all (piece, square) pairs, side to move, castling rights and en passant file,
+ * so it can be updated incrementally by XOR-ing out old and XOR-ing in new features
+ */
+public class Zobrist {
+    private static final long SEED = 0x5A6F6272697374L;
+
+    private static final long[][] PIECE = new long[PrimitiveBitBoard.LAYERS][BitBoardLayer.BA];
+    private static final long[] CASTLING = new long[4];
+    private static final long[] ENPASSANT = new long[Rules.BOARD_SIZE];
+    /** XOR-ed in when black is on turn */
+    public static final long SIDE;
+
+    static {
+        Random random = new Random(SEED);
+        for(long[] layer: PIECE)
+            for(int i = 0; i < layer.length; ++i)
+                layer[i] = random.nextLong();
+        for(int i = 0; i < CASTLING.length; ++i)
+            CASTLING[i] = random.nextLong();
+        for(int i = 0; i < ENPASSANT.length; ++i)
+            ENPASSANT[i] = random.nextLong();
+        SIDE = random.nextLong();
+    }
+
+    /** @return key of piece (its own pos is ignored) standing on pos, 0 for empty piece */
+    public static long piece(Piece piece, Position pos) {
+        if(Piece.isEmpty(piece))
+            return 0;
+        return PIECE[PrimitiveBitBoard.layerIndex(piece.color, piece.type)][BitBoardLayer.posToIndex(pos.x, pos.y)];
+    }
+
+    /** @return key of piece of given PrimitiveBitBoard layer standing on index, 0 for empty (li < 0) */
+    public static long piece(int li, int index) {
+        return li < 0 ? 0 : PIECE[li][index];
+    }
+
+    /** @return combined key of all castling rights which are set */
+    public static long castling(boolean[] castling) {
+        long result = 0;
+        for(int i = 0; i < castling.length; ++i)
+            if(castling[i])
+                result ^= CASTLING[i];
+        return result;
+    }
+
+    /** @return key of en passant file, 0 if there is no en passant */
+    public static long enpassant(Position enpassant) {
+        return enpassant == null ? 0 : ENPASSANT[enpassant.x];
+    }
+
+    public static long side(Color turnColor) {
+        return turnColor == Color.BLACK ? SIDE : 0;
+    }
+
+    /** @return key computed from scratch, use only for initial positions and verification */
+    public static long compute(Board board, Color turnColor, boolean[] castling, Position enpassant) {
+        long result = side(turnColor) ^ castling(castling) ^ enpassant(enpassant);
+        for(Piece piece: board.getAllPieces())
+            result ^= piece(piece, piece.pos);
+        return result;
+    }
+
+    public static long compute(BoardPosition bp) {
+        return compute(bp.getBoard(), bp.getTurnColor(), bp.getCastling(), bp.getEnpassant());
+    }
+}
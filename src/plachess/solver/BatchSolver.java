@@ -0,0 +1,128 @@
+package plachess.solver;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import plachess.engine.BoardPosition;
+import plachess.engine.Tablebases;
+
+/**
+ * solves many problems in one JVM, one XFEN problem per line (see SolverFactory.makeSolverFromXFEN),
+ * empty lines and lines starting with '#' are skipped
+ * problems are solved concurrently, for every problem one JSON line is printed as soon as it is solved:
+ * {"line":3,"xfen":"...","solutions":[{"board":"...","moves":2}],"nodes":1234,"ms":56}
+ * or {"line":3,"xfen":"...","error":"..."} if the problem cannot be solved
+ * usage: BatchSolver [-j threads] [-tb directory] [file]   (standard input if file is missing or "-",
+ * directory of tablebases used by solvers, see Tablebases)
+ */
+public class BatchSolver {
+    private final int threads;
+    private final PrintStream out;
+
+    public BatchSolver(int threads, PrintStream out) {
+        this.threads = threads;
+        this.out = out;
+    }
+
+    /** reads all problems, returns after all of them are solved and printed */
+    public void run(BufferedReader in) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // bounds number of problems read ahead, so huge collections are not loaded at once
+        Semaphore pending = new Semaphore(threads * 2);
+        try {
+            String line;
+            int lineNumber = 0;
+            while((line = in.readLine()) != null) {
+                ++lineNumber;
+                String xfen = line.trim();
+                if(xfen.isEmpty() || xfen.startsWith("#"))
+                    continue;
+                int number = lineNumber;
+                pending.acquire();
+                pool.execute(() -> {
+                    try {
+                        print(solve(number, xfen));
+                    } finally {
+                        pending.release();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** @return JSON line with result of problem */
+    static String solve(int lineNumber, String xfen) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"line\":").append(lineNumber).append(",\"xfen\":").append(quote(xfen));
+        int length = sb.length();
+        long start = System.nanoTime();
+        try {
+            Solver solver = SolverFactory.makeSolverFromXFEN(xfen);
+            if(solver == null)
+                throw new IllegalArgumentException("Unknown problem type");
+            solver.solve();
+            List<BoardPosition> solutions = solver.getSolutions();
+            List<Integer> numsOfMoves = solver.getNumsOfMoves();
+            sb.append(",\"solutions\":[");
+            for(int i = 0; i < solver.getNumOfSolutions(); ++i) {
+                if(i > 0)
+                    sb.append(',');
+                sb.append("{\"board\":").append(quote(solutions.get(i).getBoard().toXFEN()))
+                        .append(",\"moves\":").append(numsOfMoves.get(i)).append('}');
+            }
+            sb.append("],\"nodes\":").append(solver.getNodeCount());
+        } catch(RuntimeException | StackOverflowError | OutOfMemoryError e) { // malformed XFEN or failed search
+            sb.setLength(length); // drops partially written solutions
+            sb.append(",\"error\":").append(quote(String.valueOf(e)));
+        }
+        sb.append(",\"ms\":").append((System.nanoTime() - start) / 1000000).append('}');
+        return sb.toString();
+    }
+
+    private void print(String json) {
+        synchronized(out) {
+            out.println(json);
+            out.flush();
+        }
+    }
+
+    /** @return s as JSON string literal */
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for(char c: s.toCharArray()) {
+            if(c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if(c < 0x20)
+                sb.append(String.format("\\u%04x", (int)c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String file = "-";
+        for(int i = 0; i < args.length; ++i) {
+            if(args[i].equals("-j") && i + 1 < args.length)
+                threads = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-tb") && i + 1 < args.length)
+                Tablebases.setDefault(new Tablebases(Paths.get(args[++i])));
+            else
+                file = args[i];
+        }
+        InputStream input = file.equals("-") ? System.in : new FileInputStream(file);
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            new BatchSolver(threads, System.out).run(in);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package plachess.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Collections;
+
+import plachess.engine.BoardPosition;
+import plachess.engine.Color;
+import plachess.engine.GameStatus;
+import plachess.engine.MoveList;
+import plachess.engine.MutableBoardPosition;
+import plachess.engine.Symmetry;
+import plachess.engine.Tablebase;
+import plachess.engine.Tablebases;
+
+/**
+ * direct mate: color on turn (attacker) mates within n moves against any defence
+ * mate-only alpha-beta search - attacker stops at the first mating move, defender at the first refutation
+ * attacker tries checks first and killer moves of the ply next, defender tries killer refutations first,
+ * in the last attacker move only checks are tried
+ * every key (first move of attacker) which mates is a solution, number of moves is the minimal one
+ * positions with few pieces are answered by tablebases (see Tablebases) when they are available
+ */
+public class DirectmateSolver implements Solver {
+    private final BoardPosition state;
+    private final int n;
+
+    /** default size of transposition table (2^20 buckets, 32MB) */
+    public static final int DEFAULT_TABLE_LOG2 = 20;
+    /** depth stored for results which hold for any depth */
+    private static final int ANY_DEPTH = 1000;
+    private static final int REFUTED = 0;
+    private static final int MATE = 1;
+    private static final int KILLERS = 2;
+
+    /**
+     * entry (depth, value, hint) means defender is mated within depth attacker moves (MATE)
+     * or is not mated within depth attacker moves (REFUTED),
+     * hint is the mating (attacker) or refuting (defender) move packed (see PackedMove),
+     * positions are stored in their canonical orientation (see Symmetry), so hints are transformed too
+     */
+    private final TranspositionTable table;
+    /** null if positions are always searched */
+    private final Tablebases tablebases;
+    /** moves which caused cutoff in given ply (counted from the initial position) */
+    private int[][] killers;
+    /** positions visited by the last solve */
+    private long nodes;
+
+    private ArrayList<BoardPosition> solutions;
+    private ArrayList<Integer> numsOfMoves;
+    private Integer numOfSolutions;
+
+    public DirectmateSolver(BoardPosition state, int n) {
+        this(state, n, DEFAULT_TABLE_LOG2);
+    }
+
+    /** @param tableLog2 transposition table will have 2^tableLog2 buckets */
+    public DirectmateSolver(BoardPosition state, int n, int tableLog2) {
+        this(state, n, tableLog2, Tablebases.getDefault());
+    }
+
+    /** @param tablebases tablebases answering positions with few pieces or null */
+    public DirectmateSolver(BoardPosition state, int n, int tableLog2, Tablebases tablebases) {
+        this.state = state;
+        this.n = n;
+        this.table = new TranspositionTable(tableLog2);
+        this.tablebases = tablebases;
+    }
+
+    /** @return plies to mate of position from tablebases (see Tablebases.probe) */
+    private int probeTablebases(MutableBoardPosition position) {
+        return tablebases == null ? Tablebases.MISSING : tablebases.probe(position);
+    }
+
+    /** @return whether stored entry decides position searched with given number of attacker moves */
+    private static boolean isDecided(long entry, int moves) {
+        if(entry == TranspositionTable.MISSING)
+            return false;
+        int depth = TranspositionTable.getDepth(entry);
+        return TranspositionTable.getValue(entry) == MATE ? moves >= depth : moves <= depth;
+    }
+
+    private void addKiller(int ply, int move) {
+        if(killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+    }
+
+    /** @return whether attacker on turn mates within given number of moves (at least 1) */
+    private boolean attack(MutableBoardPosition position, int moves, int ply) {
+        nodes++;
+        int plies = probeTablebases(position);
+        if(plies != Tablebases.MISSING)
+            return plies != Tablebase.DRAW && plies % 2 == 1 && (plies + 1) / 2 <= moves;
+        int symmetry = Symmetry.canonical(position);
+        long key = Symmetry.hashKey(position, symmetry);
+        long entry = table.probe(key);
+        if(isDecided(entry, moves))
+            return TranspositionTable.getValue(entry) == MATE;
+        GameStatus status = position.classify();
+        if(status != GameStatus.IN_PLAY) {
+            if(status != GameStatus.DRAW_75) // depends on clock, which is not part of the key
+                table.store(key, ANY_DEPTH, REFUTED);
+            return false;
+        }
+
+        // only checks can mate in the last move, otherwise checks first
+        MoveList list;
+        int checks = 0;
+        if(moves == 1) {
+            list = position.generateChecks();
+            checks = list.size();
+        } else {
+            list = position.generateMoves();
+            Color defender = position.getTurnColor().opposite();
+            for(int i = 0; i < list.size(); ++i) {
+                position.makeMove(list.get(i));
+                if(position.isCheck(defender))
+                    list.swap(i, checks++);
+                position.unmakeMove();
+            }
+        }
+        for(int k = 0; k < KILLERS; ++k)
+            list.moveTo(killers[ply][k], checks + k);
+        if(entry != TranspositionTable.MISSING)
+            list.moveToFront(Symmetry.move(TranspositionTable.getHint(entry), Symmetry.inverse(symmetry)));
+
+        for(int i = 0; i < list.size(); ++i) {
+            int move = list.get(i);
+            position.makeMove(move);
+            boolean mate = defend(position, moves - 1, ply + 1);
+            position.unmakeMove();
+            if(mate) {
+                addKiller(ply, move);
+                table.store(key, moves, MATE, Symmetry.move(move, symmetry));
+                return true;
+            }
+        }
+        table.store(key, moves, REFUTED);
+        return false;
+    }
+
+    /** @return whether defender on turn is mated within given number of attacker moves */
+    private boolean defend(MutableBoardPosition position, int moves, int ply) {
+        nodes++;
+        GameStatus status = position.classify();
+        if(status == GameStatus.CHECKMATE)
+            return true;
+        if(status != GameStatus.IN_PLAY || moves == 0)
+            return false;
+        int plies = probeTablebases(position);
+        if(plies != Tablebases.MISSING)
+            return plies != Tablebase.DRAW && plies % 2 == 0 && plies / 2 <= moves;
+        int symmetry = Symmetry.canonical(position);
+        long key = Symmetry.hashKey(position, symmetry);
+        long entry = table.probe(key);
+        if(isDecided(entry, moves))
+            return TranspositionTable.getValue(entry) == MATE;
+
+        MoveList list = position.generateMoves();
+        for(int k = KILLERS - 1; k >= 0; --k)
+            list.moveToFront(killers[ply][k]);
+        if(entry != TranspositionTable.MISSING)
+            list.moveToFront(Symmetry.move(TranspositionTable.getHint(entry), Symmetry.inverse(symmetry)));
+
+        for(int i = 0; i < list.size(); ++i) {
+            int move = list.get(i);
+            position.makeMove(move);
+            boolean mated = attack(position, moves, ply + 1);
+            position.unmakeMove();
+            if(!mated) {
+                addKiller(ply, move);
+                table.store(key, moves, REFUTED, Symmetry.move(move, symmetry));
+                return false;
+            }
+        }
+        table.store(key, moves, MATE);
+        return true;
+    }
+
+    @Override
+    public void solve() {
+        solutions = new ArrayList<BoardPosition>();
+        numsOfMoves = new ArrayList<Integer>();
+        numOfSolutions = 0;
+        nodes = 0;
+        killers = new int[2*n + 1][KILLERS];
+        MutableBoardPosition position = new MutableBoardPosition(state);
+        MoveList moves = position.generateMoves();
+        for(int i = 0; i < moves.size(); ++i) {
+            position.makeMove(moves.get(i));
+            // attacker moves after the key, increased until mate is found, so the length is minimal
+            for(int after = 0; after < n; ++after) {
+                if(defend(position, after, 1)) {
+                    solutions.add(position.copy());
+                    numsOfMoves.add(after + 1);
+                    numOfSolutions += 1;
+                    break;
+                }
+            }
+            position.unmakeMove();
+        }
+    }
+
+    @Override
+    public int getN() {
+        return n;
+    }
+
+    @Override
+    public int getNumOfSolutions() {
+        return numOfSolutions;
+    }
+
+    @Override
+    public List<BoardPosition> getSolutions() {
+        return Collections.unmodifiableList(solutions);
+    }
+
+    @Override
+    public List<Integer> getNumsOfMoves() {
+        return Collections.unmodifiableList(numsOfMoves);
+    }
+
+    @Override
+    public long getNodeCount() {
+        return nodes;
+    }
+}
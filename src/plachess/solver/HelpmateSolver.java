@@ -3,42 +3,199 @@ package plachess.solver;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import plachess.engine.BoardPosition;
 import plachess.engine.Color;
+import plachess.engine.GameStatus;
+import plachess.engine.MoveList;
+import plachess.engine.MutableBoardPosition;
+import plachess.engine.Symmetry;
 
 public class HelpmateSolver implements Solver {
     private final BoardPosition state;
     private final int n;
 
+    /** default size of transposition table (2^20 buckets, 32MB) */
+    public static final int DEFAULT_TABLE_LOG2 = 20;
+    /** depth stored for results which hold for any depth */
+    private static final int ANY_DEPTH = 1000;
+
+    private final TranspositionTable table;
+    private final int parallelism;
+    private final int targetTasks;
+    /**
+     * whether ply limits 1, 3, 5, ... are searched until the first one with solutions
+     * iterations share only the transposition table, no best moves are stored for move ordering:
+     * helpmates found by an iteration are stored for any depth and never searched again,
+     * so the next iteration searches only positions without helpmate, where no move is better than another
+     */
+    private final boolean iterative;
+    /** positions visited by all threads */
+    private final LongAdder nodes = new LongAdder();
+
     private ArrayList<BoardPosition> solutions;
     private ArrayList<Integer> numsOfMoves;
     private Integer numOfSolutions;
 
-    /** @return the minimum full move clock or -1 if unsolvable.*/
-    private static int recurse(BoardPosition state, int maxDepth){
+    /** returned by evaluateWithoutSearch when moves of the position have to be searched */
+    private static final int NOT_DECIDED = -1;
+    /** subtrees shallower than this are never split between tasks */
+    private static final int MIN_SPLIT_DEPTH = 3;
+    /** number of tasks per thread which are enough to keep all threads busy */
+    private static final int TASKS_PER_THREAD = 4;
+
+    /**
+     * positions are cached in transposition table in their canonical orientation (see Symmetry)
+     * (clocks are not part of the key, so draws by seventy-five-move rule are not cached)
+     * entry (depth, value) means helpmate in exactly value plies if value <= depth,
+     * otherwise no helpmate within depth plies
+     * @return result of position if it is known without searching its moves, otherwise NOT_DECIDED
+     */
+    private int evaluateWithoutSearch(MutableBoardPosition state, int maxDepth){
         int fail = maxDepth + 1;
         if(maxDepth < 0)
             return fail;
+        nodes.increment();
+
+        long key = Symmetry.canonicalHashKey(state);
+        long entry = table.probe(key);
+        if(entry != TranspositionTable.MISSING) {
+            int depth = TranspositionTable.getDepth(entry), value = TranspositionTable.getValue(entry);
+            if(value <= depth) // exact
+                return value <= maxDepth ? value : fail;
+            if(maxDepth <= depth)
+                return fail;
+        }
+
         Color turnColor = state.getTurnColor();
 
-        if(state.isCheckMate())
-            return turnColor == Color.BLACK ? 0 : fail;
-        if (maxDepth == 0 || state.isDraw())
+        if(state.isCheckMate()) {
+            int result = turnColor == Color.BLACK ? 0 : ANY_DEPTH + 1;
+            table.store(key, ANY_DEPTH, result);
+            return Math.min(result, fail);
+        }
+        if (maxDepth == 0)
+            return fail;
+        GameStatus status = state.classify();
+        if(status == GameStatus.STALEMATE || status == GameStatus.DEAD) {
+            table.store(key, ANY_DEPTH, ANY_DEPTH + 1);
+            return fail;
+        }
+        if(status.isDraw()) // depends on clock, which is not part of the key
             return fail;
+        return NOT_DECIDED;
+    }
+
+    private void storeResult(MutableBoardPosition state, int maxDepth, int result){
+        table.store(Symmetry.canonicalHashKey(state), result <= maxDepth ? ANY_DEPTH : maxDepth, result);
+    }
+
+    /** @return the minimum number of plies to helpmate or maxDepth+1 if there is none within maxDepth */
+    private int recurse(MutableBoardPosition state, int maxDepth){
+        int known = evaluateWithoutSearch(state, maxDepth);
+        if(known != NOT_DECIDED)
+            return known;
 
         int searchDepth = maxDepth;
-        for (BoardPosition nextState : state.getNextPositions()){
-            int foundDepth = recurse(nextState, searchDepth - 1) + 1;
-            nextState.destroy();
+        // the last move has to checkmate, so only checks are searched
+        MoveList moves = maxDepth == 1 ? state.generateChecks() : state.generateMoves();
+        for (int i = 0; i < moves.size(); ++i){
+            state.makeMove(moves.get(i));
+            int foundDepth = recurse(state, searchDepth - 1) + 1;
+            state.unmakeMove();
             searchDepth = Math.min(searchDepth, foundDepth - 1);
         }
-        return searchDepth + 1;
+        int result = searchDepth + 1;
+        storeResult(state, maxDepth, result);
+        return result;
+    }
+
+    /**
+     * searches one position on its own copy of board, same as recurse
+     * subtree is split into task per move while there are too few tasks to keep all threads busy,
+     * children of split position share its bound (the searchDepth of recurse) through AtomicInteger
+     */
+    private class SearchTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final MutableBoardPosition state;
+        private final int maxDepth;
+        /** bound of parent task (its searchDepth in recurse, minimum of found depths - 1), null for root moves */
+        private final AtomicInteger parentBound;
+        /** estimated number of tasks at this level of the tree */
+        private final int estimatedTasks;
+
+        SearchTask(MutableBoardPosition state, int maxDepth, AtomicInteger parentBound, int estimatedTasks) {
+            this.state = state;
+            this.maxDepth = maxDepth;
+            this.parentBound = parentBound;
+            this.estimatedTasks = estimatedTasks;
+        }
+
+        @Override
+        protected Integer compute() {
+            if(parentBound == null)
+                return search(maxDepth);
+            int result = search(parentBound.get() - 1);
+            parentBound.accumulateAndGet(result, Math::min);
+            return result;
+        }
+
+        private int search(int maxDepth) {
+            if(estimatedTasks >= targetTasks || maxDepth < MIN_SPLIT_DEPTH)
+                return recurse(state, maxDepth);
+            int known = evaluateWithoutSearch(state, maxDepth);
+            if(known != NOT_DECIDED)
+                return known;
+
+            MoveList moves = state.generateMoves();
+            AtomicInteger bound = new AtomicInteger(maxDepth);
+            List<SearchTask> tasks = new ArrayList<>(moves.size());
+            for(int i = 0; i < moves.size(); ++i) {
+                state.makeMove(moves.get(i));
+                tasks.add(new SearchTask(state.copy(), maxDepth, bound, estimatedTasks * moves.size()));
+                state.unmakeMove();
+            }
+            invokeAll(tasks);
+            int result = bound.get() + 1;
+            storeResult(state, maxDepth, result);
+            return result;
+        }
     }
 
     public HelpmateSolver(BoardPosition state, int n) {
+        this(state, n, DEFAULT_TABLE_LOG2);
+    }
+
+    /** @param tableLog2 transposition table will have 2^tableLog2 buckets */
+    public HelpmateSolver(BoardPosition state, int n, int tableLog2) {
+        this(state, n, tableLog2, 1);
+    }
+
+    /**
+     * @param parallelism number of threads searching in ForkJoinPool, 1 means sequential search in calling thread
+     * solutions are the same (and in the same order) regardless of parallelism
+     */
+    public HelpmateSolver(BoardPosition state, int n, int tableLog2, int parallelism) {
+        this(state, n, tableLog2, parallelism, false);
+    }
+
+    /**
+     * @param iterative search ply limits 1, 3, 5, ... (sharing transposition table) and stop at the first one
+     *                  with solutions, so only the shortest solutions are found (all of them, with exact lengths)
+     */
+    public HelpmateSolver(BoardPosition state, int n, int tableLog2, int parallelism, boolean iterative) {
         this.state = state;
         this.n = n;
+        this.table = new TranspositionTable(tableLog2);
+        this.parallelism = parallelism;
+        this.targetTasks = parallelism * TASKS_PER_THREAD;
+        this.iterative = iterative;
     }
 
     @Override
@@ -46,15 +203,59 @@ public class HelpmateSolver implements Solver {
         solutions = new ArrayList<BoardPosition>();
         numsOfMoves = new ArrayList<Integer>();
         numOfSolutions = 0;
-        int searchDepth = 2*n-1;
-        for (BoardPosition nextState : state.getNextPositions()){
-            int numOfMoves = recurse(nextState, searchDepth);
-            if (numOfMoves <= searchDepth){
-                solutions.add(nextState);
-                numsOfMoves.add((numOfMoves + 1) / 2);
-                numOfSolutions += 1;
-            }
+        nodes.reset();
+        if(!iterative) {
+            searchRoot(2*n-1);
+            return;
         }
+        for(int maxDepth = 1; maxDepth <= 2*n-1 && numOfSolutions == 0; maxDepth += 2)
+            searchRoot(maxDepth);
+    }
+
+    /** adds solutions of at most maxDepth plies after the first move */
+    private void searchRoot(int maxDepth){
+        if(parallelism > 1)
+            solveParallel(maxDepth);
+        else
+            solveSequential(maxDepth);
+    }
+
+    private void addSolution(BoardPosition position, int numOfMoves, int maxDepth){
+        if (numOfMoves <= maxDepth){
+            solutions.add(position);
+            numsOfMoves.add((numOfMoves + 1) / 2);
+            numOfSolutions += 1;
+        }
+    }
+
+    private void solveSequential(int maxDepth){
+        MutableBoardPosition position = new MutableBoardPosition(state);
+        MoveList moves = position.generateMoves();
+        for (int i = 0; i < moves.size(); ++i){
+            position.makeMove(moves.get(i));
+            addSolution(position.copy(), recurse(position, maxDepth), maxDepth);
+            position.unmakeMove();
+        }
+    }
+
+    /** every root move is searched with full depth by its own task, results are collected in order of moves */
+    private void solveParallel(int maxDepth){
+        MutableBoardPosition position = new MutableBoardPosition(state);
+        MoveList moves = position.generateMoves();
+        List<SearchTask> tasks = new ArrayList<>(moves.size());
+        for (int i = 0; i < moves.size(); ++i){
+            position.makeMove(moves.get(i));
+            tasks.add(new SearchTask(position.copy(), maxDepth, null, moves.size()));
+            position.unmakeMove();
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        } finally {
+            pool.shutdown();
+        }
+        for (SearchTask task : tasks)
+            addSolution(task.state.copy(), task.join(), maxDepth);
     }
 
     @Override
@@ -76,4 +277,9 @@ public class HelpmateSolver implements Solver {
     public List<Integer> getNumsOfMoves(){
         return Collections.unmodifiableList(numsOfMoves);
     }
+
+    @Override
+    public long getNodeCount(){
+        return nodes.sum();
+    }
 }
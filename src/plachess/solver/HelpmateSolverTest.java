@@ -0,0 +1,53 @@
+package plachess.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import plachess.engine.BoardPosition;
+import plachess.engine.MutableBoardPosition;
+
+/** testing of parallel helpmate search against sequential one */
+public class HelpmateSolverTest {
+    /** helpmates with number of moves */
+    private static final Object[][] PROBLEMS = {
+            {"8/8/b7/8/1R4K1/k2N4/8/8 b - - 0 1", 2},
+            {"8/8/b7/8/1R4K1/k2N4/8/8 b - - 0 1", 3}};
+
+    private static final int PARALLELISM = 8;
+    /** parallel search may visit more positions, because its tasks do not see each other's bounds immediately */
+    private static final double NODE_TOLERANCE = 1.5;
+
+    private static List<String> solutions(Solver solver) {
+        List<String> result = new ArrayList<>();
+        for(int i = 0; i < solver.getNumOfSolutions(); ++i)
+            result.add(solver.getSolutions().get(i).getBoard().toXFEN() + " " + solver.getNumsOfMoves().get(i));
+        return result;
+    }
+
+    /** parallel search finds the same solutions and visits about the same number of positions */
+    public static boolean testParallel() {
+        for(Object[] problem: PROBLEMS) {
+            BoardPosition bp = MutableBoardPosition.fromXFEN((String)problem[0]);
+            int n = (int)problem[1];
+            HelpmateSolver sequential = new HelpmateSolver(bp, n);
+            HelpmateSolver parallel = new HelpmateSolver(bp, n, HelpmateSolver.DEFAULT_TABLE_LOG2, PARALLELISM);
+            sequential.solve();
+            parallel.solve();
+            if(!solutions(sequential).equals(solutions(parallel))) {
+                System.out.printf("WA: %s h#%d\nsequential: %s\nparallel: %s\n", problem[0], n,
+                        solutions(sequential), solutions(parallel));
+                return false;
+            }
+            if(parallel.getNodeCount() > sequential.getNodeCount() * NODE_TOLERANCE) {
+                System.out.printf("WA: %s h#%d visits %d positions in parallel, %d sequentially\n", problem[0], n,
+                        parallel.getNodeCount(), sequential.getNodeCount());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void test() {
+        testParallel();
+    }
+}
@@ -0,0 +1,205 @@
+package plachess.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Collections;
+
+import plachess.engine.BoardPosition;
+import plachess.engine.Color;
+import plachess.engine.GameStatus;
+import plachess.engine.MoveList;
+import plachess.engine.MutableBoardPosition;
+
+/**
+ * same problems as SelfmateSolver solved by depth-bounded proof-number search
+ * White to move is OR node, Black to move is AND node, the most-proving node is expanded first
+ * and search of key stops as soon as it is proved or disproved
+ * number of moves of every solution is the minimal one (keys proved in n moves are searched again in fewer)
+ */
+public class SelfmatePnsSolver implements Solver {
+    private final BoardPosition state;
+    private final int n;
+
+    /** default maximal number of nodes in tree of one search (about 2^22 nodes, 200MB) */
+    public static final long DEFAULT_MAX_NODES = 1L << 22;
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /** search of key which exceeds maxNodes makes solve throw IllegalStateException */
+    private final long maxNodes;
+    /** nodes created by current search */
+    private long nodes;
+    /** nodes created by all searches of the last solve */
+    private long totalNodes;
+
+    private ArrayList<BoardPosition> solutions;
+    private ArrayList<Integer> numsOfMoves;
+    private Integer numOfSolutions;
+
+    private static class Node {
+        /** packed move leading to this node (see PackedMove) */
+        final int move;
+        int proof = 1, disproof = 1;
+        /** null if not expanded yet, NO_CHILDREN after node is solved */
+        Node[] children;
+
+        Node(int move) {
+            this.move = move;
+        }
+
+        boolean isSolved() {
+            return proof == 0 || disproof == 0;
+        }
+
+        void setProved() {
+            proof = 0;
+            disproof = INFINITY;
+        }
+
+        void setDisproved() {
+            proof = INFINITY;
+            disproof = 0;
+        }
+    }
+
+    public SelfmatePnsSolver(BoardPosition state, int n) {
+        this(state, n, DEFAULT_MAX_NODES);
+    }
+
+    public SelfmatePnsSolver(BoardPosition state, int n, long maxNodes) {
+        this.state = state;
+        this.n = n;
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * proof numbers of positions decided without moves are set
+     * (same rules as SelfmateSolver: White checkmated proves, end of depth, draw or claimable draw disproves,
+     * so does Black having a move not giving check when its last move has to mate)
+     */
+    private void evaluate(Node node, MutableBoardPosition position, int depth) {
+        nodes++;
+        GameStatus status = position.classify();
+        if(status == GameStatus.CHECKMATE && position.getTurnColor() == Color.WHITE)
+            node.setProved();
+        else if(status != GameStatus.IN_PLAY || depth == 0 || position.canCallDraw())
+            node.setDisproved();
+        else if(depth == 1 && position.getTurnColor() == Color.BLACK &&
+                position.generateChecks().size() < position.countLegalMoves())
+            node.setDisproved();
+    }
+
+    private void expand(Node node, MutableBoardPosition position, int depth) {
+        MoveList moves = position.generateMoves();
+        Node[] children = new Node[moves.size()];
+        for(int i = 0; i < children.length; ++i) {
+            children[i] = new Node(moves.get(i));
+            position.makeMove(children[i].move);
+            evaluate(children[i], position, depth - 1);
+            position.unmakeMove();
+        }
+        node.children = children;
+    }
+
+    /** proof numbers of node are computed from its children */
+    private static void update(Node node, boolean white) {
+        int min = INFINITY;
+        long sum = 0;
+        for(Node child: node.children) {
+            int minOf = white ? child.proof : child.disproof;
+            min = Math.min(min, minOf);
+            sum += white ? child.disproof : child.proof;
+        }
+        int sumCapped = (int)Math.min(sum, INFINITY);
+        node.proof = white ? min : sumCapped;
+        node.disproof = white ? sumCapped : min;
+    }
+
+    /** @return child with the smallest proof (White) or disproof (Black) number */
+    private static Node select(Node node, boolean white) {
+        Node best = null;
+        for(Node child: node.children)
+            if(best == null || (white ? child.proof < best.proof : child.disproof < best.disproof))
+                best = child;
+        return best;
+    }
+
+    /** one iteration: descends to the most-proving node, expands it and updates proof numbers on the way back */
+    private void search(Node node, MutableBoardPosition position, int depth) {
+        boolean white = position.getTurnColor() == Color.WHITE;
+        if(node.children == null) {
+            expand(node, position, depth);
+        } else {
+            Node child = select(node, white);
+            position.makeMove(child.move);
+            search(child, position, depth - 1);
+            position.unmakeMove();
+        }
+        update(node, white);
+        if(node.isSolved()) // subtree is not needed anymore
+            node.children = NO_CHILDREN;
+    }
+
+    /**
+     * @return whether position leads to selfmate within depth plies
+     * @throws IllegalStateException if position is neither proved nor disproved within maxNodes
+     */
+    private boolean prove(MutableBoardPosition position, int depth) {
+        Node root = new Node(position.getLastPackedMove());
+        nodes = 0;
+        evaluate(root, position, depth);
+        while(!root.isSolved() && nodes < maxNodes)
+            search(root, position, depth);
+        totalNodes += nodes;
+        if(!root.isSolved())
+            throw new IllegalStateException("Search of " + position.getBoard().toXFEN() + " exceeded " + maxNodes + " nodes");
+        return root.proof == 0;
+    }
+
+    @Override
+    public void solve() {
+        solutions = new ArrayList<BoardPosition>();
+        numsOfMoves = new ArrayList<Integer>();
+        numOfSolutions = 0;
+        totalNodes = 0;
+        MutableBoardPosition position = new MutableBoardPosition(state);
+        MoveList moves = position.generateMoves();
+        for(int i = 0; i < moves.size(); ++i) {
+            position.makeMove(moves.get(i));
+            if(prove(position, 2*n-1)) {
+                int numOfMoves = 1;
+                while(numOfMoves < n && !prove(position, 2*numOfMoves-1))
+                    ++numOfMoves;
+                solutions.add(position.copy());
+                numsOfMoves.add(numOfMoves);
+                numOfSolutions += 1;
+            }
+            position.unmakeMove();
+        }
+    }
+
+    @Override
+    public int getN() {
+        return n;
+    }
+
+    @Override
+    public int getNumOfSolutions() {
+        return numOfSolutions;
+    }
+
+    @Override
+    public List<BoardPosition> getSolutions() {
+        return Collections.unmodifiableList(solutions);
+    }
+
+    @Override
+    public List<Integer> getNumsOfMoves() {
+        return Collections.unmodifiableList(numsOfMoves);
+    }
+
+    @Override
+    public long getNodeCount() {
+        return totalNodes;
+    }
+}
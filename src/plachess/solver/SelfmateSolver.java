@@ -6,53 +6,129 @@ import java.util.Collections;
 
 import plachess.engine.BoardPosition;
 import plachess.engine.Color;
+import plachess.engine.GameStatus;
+import plachess.engine.MoveList;
+import plachess.engine.MutableBoardPosition;
+import plachess.engine.Symmetry;
+import plachess.engine.PackedMove;
 
 public class SelfmateSolver implements Solver {
     private final BoardPosition state;
     private final int n;
 
+    /** default size of result cache (2^20 buckets, 32MB) */
+    public static final int DEFAULT_TABLE_LOG2 = 20;
+    /** depth stored for results which hold for any depth */
+    private static final int ANY_DEPTH = 1000;
+    /** cached value of positions which are refuted */
+    private static final int REFUTED = 0;
+
+    /**
+     * results of positions, entry (depth, value, hint) means either refuted at depth >= given depth (REFUTED)
+     * or forced within given depth with mate at fullMoveClock + value - 1
+     * hint is the refuting (Black) or best (White) move packed (see PackedMove)
+     */
+    private final TranspositionTable table;
+
+    /** positions visited by the last solve */
+    private long nodes;
+
     private ArrayList<BoardPosition> solutions;
     private ArrayList<Integer> numsOfMoves;
     private Integer numOfSolutions;
 
-    /** @return the minimum full move clock or -1 if unsolvable.*/
-     private static int recurse(BoardPosition state,int max_depth) {
+    /**
+     * positions are cached by hash key of their canonical orientation (see Symmetry)
+     * (clocks are not part of the key, so draws by fifty-move and seventy-five-move rules are not cached)
+     * @return the minimum full move clock or -1 if unsolvable.
+     */
+     private int recurse(MutableBoardPosition state,int max_depth) {
+        nodes++;
+        int symmetry = Symmetry.canonical(state);
+        long key = Symmetry.hashKey(state, symmetry);
+        long entry = table.probe(key);
+        int hint = PackedMove.NONE;
+        if (entry != TranspositionTable.MISSING) {
+            int depth = TranspositionTable.getDepth(entry), value = TranspositionTable.getValue(entry);
+            if (value == REFUTED && max_depth <= depth)
+                return -1;
+            if (value != REFUTED && max_depth >= depth)
+                return state.getFullMoveClock() + value - 1;
+            hint = Symmetry.move(TranspositionTable.getHint(entry), Symmetry.inverse(symmetry));
+        }
+
         if (state.getTurnColor() == Color.WHITE && state.isCheckMate()) { // TODO what if BLACK did checkmate?
+            table.store(key, 0, 1);
             return state.getFullMoveClock();
         }
-        if (max_depth == 0 || state.isDraw() || state.canCallDraw()) {
+        if (max_depth == 0)
+            return -1;
+        GameStatus status = state.classify();
+        if (status == GameStatus.STALEMATE || status == GameStatus.DEAD) {
+            table.store(key, ANY_DEPTH, REFUTED);
             return -1;
         }
+        if (status.isDraw() || state.canCallDraw()) // depends on clock, which is not part of the key
+            return -1;
         int best = -1;
+        int bestMove = PackedMove.NONE;
+        MoveList moves;
+        if (max_depth == 1 && state.getTurnColor() == Color.BLACK) {
+            // Black has to mate by its last move, any move not giving check refutes
+            moves = state.generateChecks();
+            if (moves.size() < state.countLegalMoves()) {
+                table.store(key, max_depth, REFUTED);
+                return -1;
+            }
+        } else
+            moves = state.generateMoves();
+        moves.moveToFront(hint);
         if (state.getTurnColor() == Color.WHITE) {
-            for (BoardPosition nextState : state.getNextPositions()) {
-                int numOfMoves = recurse(nextState, max_depth-1);
+            for (int i = 0; i < moves.size(); ++i) {
+                int move = moves.get(i);
+                state.makeMove(move);
+                int numOfMoves = recurse(state, max_depth-1);
+                state.unmakeMove();
                 if (numOfMoves != -1) {
                     if (best == -1 || numOfMoves < best) {
                         best = numOfMoves;
+                        bestMove = move;
                     }
                 }
             }
         } else {
-            for (BoardPosition nextState : state.getNextPositions()) {
-                int numOfMoves = recurse(nextState, max_depth-1);
-                nextState.destroy();
+            for (int i = 0; i < moves.size(); ++i) {
+                int move = moves.get(i);
+                state.makeMove(move);
+                int numOfMoves = recurse(state, max_depth-1);
+                state.unmakeMove();
                 if (numOfMoves != -1) {
                     if (best == -1 || numOfMoves > best) {
                         best = numOfMoves;
                     }
                 }else{
+                    table.store(key, max_depth, REFUTED, Symmetry.move(move, symmetry));
                     return -1;
                 }
             }
         }
 
+        if (best == -1)
+            table.store(key, max_depth, REFUTED);
+        else
+            table.store(key, max_depth, best - state.getFullMoveClock() + 1, Symmetry.move(bestMove, symmetry));
         return best;
     }
 
     public SelfmateSolver(BoardPosition state, int n) {
+        this(state, n, DEFAULT_TABLE_LOG2);
+    }
+
+    /** @param tableLog2 result cache will have 2^tableLog2 buckets */
+    public SelfmateSolver(BoardPosition state, int n, int tableLog2) {
         this.state = state;
         this.n = n;
+        this.table = new TranspositionTable(tableLog2);
     }
 
     @Override
@@ -60,13 +136,18 @@ public class SelfmateSolver implements Solver {
         solutions = new ArrayList<BoardPosition>();
         numsOfMoves = new ArrayList<Integer>();
         numOfSolutions = 0;
-        for (BoardPosition nextState : state.getNextPositions()) {
-            int numOfMoves = recurse(nextState, 2*n-1);
+        nodes = 0;
+        MutableBoardPosition position = new MutableBoardPosition(state);
+        MoveList moves = position.generateMoves();
+        for (int i = 0; i < moves.size(); ++i) {
+            position.makeMove(moves.get(i));
+            int numOfMoves = recurse(position, 2*n-1);
             if (numOfMoves != -1) {
-                solutions.add(nextState);
+                solutions.add(position.copy());
                 numsOfMoves.add(numOfMoves - state.getFullMoveClock());
                 numOfSolutions += 1;
             }
+            position.unmakeMove();
         }
     }
 
@@ -89,4 +170,9 @@ public class SelfmateSolver implements Solver {
     public List<Integer> getNumsOfMoves() {
         return Collections.unmodifiableList(numsOfMoves);
     }
+
+    @Override
+    public long getNodeCount() {
+        return nodes;
+    }
 }
@@ -16,4 +16,7 @@ public interface Solver {
     public List<BoardPosition> getSolutions();
 
     public List<Integer> getNumsOfMoves();
+
+    /** @return number of positions visited by the last solve */
+    public long getNodeCount();
 }
@@ -15,8 +15,17 @@ public abstract class SolverFactory{
     public static Solver makeSolver(BoardPosition state, int n, String type){
         if (type.equals("selfmate"))
             return new SelfmateSolver(state, n);
+        if (type.equals("selfmate-pns"))
+            return new SelfmatePnsSolver(state, n);
+        if (type.equals("directmate") || type.equals("#"))
+            return new DirectmateSolver(state, n);
         if (type.equals("helpmate"))
             return new HelpmateSolver(state, n);
+        if (type.equals("helpmate-id"))
+            return new HelpmateSolver(state, n, HelpmateSolver.DEFAULT_TABLE_LOG2, 1, true);
+        if (type.equals("helpmate-parallel"))
+            return new HelpmateSolver(state, n, HelpmateSolver.DEFAULT_TABLE_LOG2,
+                    Runtime.getRuntime().availableProcessors());
         return null;
     }
 
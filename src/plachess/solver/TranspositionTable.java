@@ -0,0 +1,90 @@
+package plachess.solver;
+
+import java.util.Arrays;
+
+/**
+ * fixed-size hash table of search results keyed by position hash (see BoardPosition.getHashKey)
+ * every entry stores depth the result was searched to, the result itself and optional move hint
+ * (e.g. hashCode of best or refuting move), meaning is given by the solver
+ * every bucket has two slots, first one is depth-preferred and second one is always replaced
+ * can be shared by threads without locking - key is stored XOR-ed with data,
+ * so entry torn by concurrent writes does not match its key and is treated as missing
+ */
+public class TranspositionTable {
+    public static final long MISSING = -1L;
+    private static final int SLOTS = 2;
+
+    /** key XOR data */
+    private final long[] keys;
+    /** depth in bits 48-62, value in bits 32-47 and hint in lower 32 bits */
+    private final long[] data;
+    private final int bucketMask;
+
+    /** @param log2Buckets table will have 2^log2Buckets buckets (each with two slots) */
+    public TranspositionTable(int log2Buckets) {
+        keys = new long[SLOTS << log2Buckets];
+        data = new long[SLOTS << log2Buckets];
+        bucketMask = (1 << log2Buckets) - 1;
+        clear();
+    }
+
+    public void clear() {
+        Arrays.fill(data, MISSING);
+    }
+
+    private int bucket(long key) {
+        return ((int)(key ^ (key >>> 32)) & bucketMask) * SLOTS;
+    }
+
+    /** maximal depth and value which can be stored */
+    public static final int MAX_DEPTH = 0x7FFF;
+    public static final int MAX_VALUE = 0xFFFF;
+
+    /** depth and value have to be non-negative and not greater than MAX_DEPTH / MAX_VALUE */
+    private static long pack(int depth, int value, int hint) {
+        return ((long)depth << 48) | ((long)value << 32) | (hint & 0xFFFFFFFFL);
+    }
+
+    public static int getDepth(long entry) { return (int)(entry >>> 48); }
+    public static int getValue(long entry) { return (int)(entry >>> 32) & MAX_VALUE; }
+    public static int getHint(long entry) { return (int)entry; }
+
+    /** @return packed entry stored for given key or MISSING */
+    public long probe(long key) {
+        int b = bucket(key);
+        for(int i = b; i < b + SLOTS; ++i) {
+            long entry = data[i];
+            if((keys[i] ^ entry) == key && entry != MISSING)
+                return entry;
+        }
+        return MISSING;
+    }
+
+    /**
+     * stores result of search of given depth
+     * entry goes to depth-preferred slot if it is searched at least as deep as the current occupant
+     * (or has the same key), otherwise to always-replace slot
+     */
+    public void store(long key, int depth, int value) {
+        store(key, depth, value, 0);
+    }
+
+    public void store(long key, int depth, int value, int hint) {
+        int b = bucket(key);
+        long entry = pack(depth, value, hint);
+        long oldEntry = data[b];
+        long oldKey = keys[b] ^ oldEntry;
+        if(oldEntry == MISSING || oldKey == key || getDepth(oldEntry) <= depth) {
+            if(oldKey != key && oldEntry != MISSING) { // demote previous occupant
+                keys[b + 1] = oldKey ^ oldEntry;
+                data[b + 1] = oldEntry;
+            } else if((keys[b + 1] ^ data[b + 1]) == key)
+                data[b + 1] = MISSING;
+            keys[b] = key ^ entry;
+            data[b] = entry;
+        } else {
+            keys[b + 1] = key ^ entry;
+            data[b + 1] = entry;
+        }
+    }
+}